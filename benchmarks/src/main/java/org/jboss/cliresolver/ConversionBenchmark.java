@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks for property lists and converts DMR values to Java values, for lists of different sizes.  The
+ * converter used by convertAttributeValue is compiled from the description on the first call and cached, so the
+ * stub has no latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"10", "1000"})
+    public int size;
+
+    private final CliResolver resolver = new CliResolver();
+    private final AddressPath address = AddressPath.parse("/subsystem=stub");
+
+    private ModelNode propertyList;
+    private ModelNode intList;
+    private ModelNode longValue;
+
+    @Setup
+    public void setUp() {
+        propertyList = new ModelNode().setEmptyList();
+        intList = new ModelNode().setEmptyList();
+        for (int i = 0; i < size; i++) {
+            propertyList.add("name" + i, i);
+            intList.add(i);
+        }
+        longValue = new ModelNode(Long.MAX_VALUE);
+
+        ModelNode attributes = new ModelNode();
+        attributes.get("numbers").set(intList);
+        ManagementService.setClientProvider(new StubModelControllerClient(0).resource(address.toString(), attributes));
+    }
+
+    @Benchmark
+    public boolean isPropertyList() {
+        return resolver.isPropertyList(propertyList);
+    }
+
+    @Benchmark
+    public boolean isPropertyListOfInts() {
+        return resolver.isPropertyList(intList);
+    }
+
+    @Benchmark
+    public Object convertValue() {
+        return resolver.convertValueToJavaType(longValue);
+    }
+
+    @Benchmark
+    public Object convertList() {
+        return resolver.convertValueToJavaType(intList);
+    }
+
+    @Benchmark
+    public Object convertAttributeValue() throws IOException {
+        return resolver.convertAttributeValue(address, "numbers", intList);
+    }
+}
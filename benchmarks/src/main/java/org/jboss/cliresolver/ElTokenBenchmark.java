@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares parsing an EL property on every call, the way the resolver used to, with looking it up in the
+ * {@link ElToken} table.  Run with -prof gc to see the allocation difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElTokenBenchmark {
+
+    @Param({"subsystem_eq_web", "periodic_dash_rotating_dash_file_dash_handler_eq_FILE", "bytesSent",
+            "modification_dash_test_dash_interval", "_isDomain_"})
+    public String property;
+
+    @Benchmark
+    public void stringPath(Blackhole bh) {
+        // this is what getValue used to do for every property
+        String str = property.trim();
+        str = str.replace("_dash_", "-");
+        str = str.replace("_dot_", ".");
+        str = str.replace("_astk_", "*");
+
+        boolean isAddress = str.contains("_eq_") || str.equals(CliResolver.ROOT);
+        if (isAddress && !str.equals(CliResolver.ROOT)) {
+            bh.consume(str.substring(0, str.indexOf("_eq_")));
+            bh.consume(str.substring(str.indexOf("_eq_") + 4));
+        } else {
+            bh.consume(str);
+        }
+    }
+
+    @Benchmark
+    public String replaceCharsNotAllowedInEL() {
+        return ElToken.replaceCharsNotAllowedInEL(property);
+    }
+
+    @Benchmark
+    public void tokenTable(Blackhole bh) {
+        ElToken token = ElToken.of(property);
+        if (token.isAddress()) {
+            bh.consume(token.key());
+            bh.consume(token.value());
+        } else {
+            bh.consume(token.name());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.concurrent.TimeUnit;
+import javax.el.ELContext;
+import javax.el.ELResolver;
+import javax.el.FunctionMapper;
+import javax.el.VariableMapper;
+import org.jboss.dmr.ModelNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates an expression such as <code>#{level1_eq_x.level2_eq_x.level3_eq_x.count}</code> the way the EL
+ * implementation does, one getValue per property, against a {@link StubModelControllerClient}.
+ *
+ * With cached=false every evaluation reads the attribute from the stub, so latencyMicros shows how the resolver
+ * behaves when the server is slow.  With cached=true the value comes from the value cache and the benchmark
+ * measures the resolver alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBenchmark {
+
+    @Param({"1", "3", "6"})
+    public int depth;
+
+    @Param({"0", "200"})
+    public long latencyMicros;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private final CliResolver resolver = new CliResolver();
+    private final ELContext elContext = new BenchmarkELContext(resolver);
+    private String[] addressTokens;
+
+    @Setup
+    public void setUp() {
+        StubModelControllerClient client = new StubModelControllerClient(latencyMicros);
+        ManagementService.setClientProvider(client);
+
+        addressTokens = new String[depth];
+        String address = "";
+        for (int i = 1; i <= depth; i++) {
+            address = address + "/level" + i + "=x";
+            addressTokens[i - 1] = "level" + i + "_eq_x";
+
+            ModelNode attributes = new ModelNode();
+            attributes.get("count").set(i);
+            attributes.get("name").set("level" + i);
+            client.resource(address, attributes);
+            if (!cached) ValueCache.getInstance().setTtlOverride(address, 0);
+        }
+    }
+
+    @Benchmark
+    public Object getValueChain() {
+        Object base = null;
+        for (String token : addressTokens) {
+            base = resolver.getValue(elContext, base, token);
+        }
+        return resolver.getValue(elContext, base, "count");
+    }
+
+    static class BenchmarkELContext extends ELContext {
+        private final ELResolver resolver;
+
+        BenchmarkELContext(ELResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public ELResolver getELResolver() {
+            return resolver;
+        }
+
+        @Override
+        public FunctionMapper getFunctionMapper() {
+            return null;
+        }
+
+        @Override
+        public VariableMapper getVariableMapper() {
+            return null;
+        }
+    }
+}
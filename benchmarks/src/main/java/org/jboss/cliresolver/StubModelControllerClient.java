@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * An in-process stand-in for a server.  It holds a few resources in memory and answers the operations the
+ * resolver uses: read-attribute, read-resource, read-resource-description, write-attribute and composite.
+ * Every call waits for the configured latency first, to stand in for the network and the controller.
+ * Install it with {@link ManagementService#setClientProvider(ManagementClientProvider)}.
+ */
+public class StubModelControllerClient implements ModelControllerClient, ManagementClientProvider {
+
+    private final Map<AddressPath, ModelNode> resources = new ConcurrentHashMap<AddressPath, ModelNode>();
+    private final long latencyNanos;
+
+    /**
+     * @param latencyMicros How long every call takes.  Zero answers at once.
+     */
+    public StubModelControllerClient(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+
+        ModelNode root = new ModelNode();
+        root.get("launch-type").set("STANDALONE");
+        resources.put(AddressPath.ROOT, root);
+    }
+
+    @Override
+    public ModelControllerClient getClient() {
+        return this;
+    }
+
+    /**
+     * Add a resource.
+     *
+     * @param address Such as /subsystem=web/connector=http
+     * @param attributes An object with an entry for each attribute.
+     */
+    public StubModelControllerClient resource(String address, ModelNode attributes) {
+        resources.put(AddressPath.parse(address), attributes);
+        return this;
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        return answer(operation);
+    }
+
+    private ModelNode answer(ModelNode operation) {
+        String name = operation.get("operation").asString();
+
+        if (name.equals("composite")) {
+            ModelNode result = success();
+            int step = 1;
+            for (ModelNode stepOperation : operation.get("steps").asList()) {
+                result.get("result", "step-" + step++).set(answer(stepOperation));
+            }
+            return result;
+        }
+
+        AddressPath address = operation.hasDefined("address") ? AddressPath.of(operation.get("address")) : AddressPath.ROOT;
+        ModelNode resource = resources.get(address);
+        if (resource == null) return failure("Resource " + address + " does not exist");
+
+        if (name.equals("read-attribute")) {
+            String attribute = operation.get("name").asString();
+            if (!resource.has(attribute)) return failure("Unknown attribute " + attribute);
+            ModelNode result = success();
+            result.get("result").set(resource.get(attribute));
+            return result;
+        }
+
+        if (name.equals("read-resource")) {
+            ModelNode result = success();
+            result.get("result").set(resource);
+            return result;
+        }
+
+        if (name.equals("read-resource-description")) {
+            ModelNode result = success();
+            result.get("result").set(describe(resource));
+            return result;
+        }
+
+        if (name.equals("write-attribute")) {
+            resource.get(operation.get("name").asString()).set(operation.get("value"));
+            return success();
+        }
+
+        return failure("Unknown operation " + name);
+    }
+
+    private static ModelNode describe(ModelNode resource) {
+        ModelNode description = new ModelNode();
+        description.get("description").set("Stub resource");
+        for (Property attribute : resource.asPropertyList()) {
+            ModelNode value = attribute.getValue();
+            ModelNode attributeDescription = description.get("attributes", attribute.getName());
+            attributeDescription.get("type").set(value.getType());
+            attributeDescription.get("access-type").set("read-write");
+            attributeDescription.get("storage").set("configuration");
+            if ((value.getType() == ModelType.LIST) && !value.asList().isEmpty()) {
+                attributeDescription.get("value-type").set(value.asList().get(0).getType());
+            }
+        }
+        return description;
+    }
+
+    private static ModelNode success() {
+        ModelNode result = new ModelNode();
+        result.get("outcome").set("success");
+        return result;
+    }
+
+    private static ModelNode failure(String description) {
+        ModelNode result = new ModelNode();
+        result.get("outcome").set("failed");
+        result.get("failure-description").set(description);
+        return result;
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation);
+    }
+
+    @Override
+    public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        throw new UnsupportedOperationException("The stub only executes synchronously");
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        throw new UnsupportedOperationException("The stub only executes synchronously");
+    }
+
+    @Override
+    public void close() {
+    }
+}
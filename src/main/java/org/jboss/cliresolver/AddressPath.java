@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.Set;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+
+/**
+ * An immutable address in the management model.  This is the value of the intermediate parts of an EL expression
+ * such as <code>subsystem_eq_web.connector_eq_http</code>.
+ *
+ * Each path only adds one segment to its parent, so paths built from the same expression share their prefix and
+ * appending a segment costs one small object.  The path becomes a DMR address only when an operation is executed.
+ * The hash code is computed once, so a path is also a cheap and exact key for caches.
+ */
+public final class AddressPath {
+
+    public static final AddressPath ROOT = new AddressPath();
+
+    private final AddressPath parent;
+    private final String key;
+    private final String value;
+    private final int depth;
+    private final int hash;
+    private final boolean wildcard;
+
+    // computed when first needed
+    private String string;
+    private AddressPath template;
+
+    private AddressPath() {
+        this.parent = null;
+        this.key = null;
+        this.value = null;
+        this.depth = 0;
+        this.hash = 0;
+        this.wildcard = false;
+    }
+
+    private AddressPath(AddressPath parent, String key, String value) {
+        this.parent = parent;
+        this.key = key;
+        this.value = value;
+        this.depth = parent.depth + 1;
+        this.hash = 31 * (31 * parent.hash + key.hashCode()) + value.hashCode();
+        this.wildcard = parent.wildcard || value.equals("*");
+    }
+
+    /**
+     * Convert a DMR address to a path.
+     *
+     * @param address A list of properties, or undefined for the root.
+     */
+    public static AddressPath of(ModelNode address) {
+        AddressPath path = ROOT;
+        if (!address.isDefined()) return path;
+
+        for (Property element : address.asPropertyList()) {
+            path = path.append(element.getName(), element.getValue().asString());
+        }
+        return path;
+    }
+
+    /**
+     * Parse a path written the way the CLI writes it, such as /subsystem=web/connector=*
+     */
+    public static AddressPath parse(String path) {
+        AddressPath result = ROOT;
+        for (String element : path.split("/")) {
+            if (element.length() == 0) continue;
+
+            int eq = element.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Invalid address element " + element + " in " + path);
+            result = result.append(element.substring(0, eq), element.substring(eq + 1));
+        }
+        return result;
+    }
+
+    /**
+     * Add one segment to this path.
+     */
+    public AddressPath append(String key, String value) {
+        return new AddressPath(this, key, value);
+    }
+
+    /**
+     * Build the DMR address for this path.  The returned node belongs to the caller.
+     */
+    public ModelNode toModelNode() {
+        ModelNode address = new ModelNode().setEmptyList();
+        addTo(address);
+        return address;
+    }
+
+    private void addTo(ModelNode address) {
+        if (parent == null) return;
+        parent.addTo(address);
+        address.add(key, value);
+    }
+
+    public AddressPath getParent() {
+        return parent;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public boolean isRoot() {
+        return depth == 0;
+    }
+
+    /**
+     * @return <code>true</code> if any segment of this path is a wildcard.
+     */
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * @return <code>true</code> if prefix is a prefix of this path or the same path.
+     */
+    public boolean startsWith(AddressPath prefix) {
+        AddressPath path = this;
+        while (path.depth > prefix.depth) {
+            path = path.parent;
+        }
+        return path.equals(prefix);
+    }
+
+    /**
+     * Get the path with the value of every segment whose key is in wildcardKeys replaced by *.  The template is
+     * remembered, so wildcardKeys must always be the same set.
+     */
+    AddressPath template(Set<String> wildcardKeys) {
+        AddressPath result = template;
+        if (result != null) return result;
+
+        if (parent == null) {
+            result = this;
+        } else {
+            AddressPath parentTemplate = parent.template(wildcardKeys);
+            boolean wildcardKey = wildcardKeys.contains(key);
+            if ((parentTemplate == parent) && !wildcardKey) {
+                result = this;
+            } else {
+                result = parentTemplate.append(key, wildcardKey ? "*" : value);
+            }
+        }
+
+        template = result;
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof AddressPath)) return false;
+
+        AddressPath a = this;
+        AddressPath b = (AddressPath) obj;
+        if ((a.hash != b.hash) || (a.depth != b.depth)) return false;
+
+        // equal depth, so both reach the root together
+        while (a != b) {
+            if (!a.key.equals(b.key) || !a.value.equals(b.value)) return false;
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * @return The path the way the CLI writes it, such as /subsystem=web/connector=http
+     */
+    @Override
+    public String toString() {
+        String result = string;
+        if (result != null) return result;
+
+        if (parent == null) {
+            result = "/";
+        } else if (parent.parent == null) {
+            result = "/" + key + "=" + value;
+        } else {
+            result = parent.toString() + "/" + key + "=" + value;
+        }
+
+        string = result;
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * The result list of a _CLI_ command, such as the result of /subsystem=logging/logger=*:read-resource.
+ *
+ * It is an ordinary list, so <code>execute[0]</code> still works.  When the elements are the per-resource results
+ * of a wildcard operation, an element can also be found by its address without scanning the list:
+ * <pre>
+ * #{_CLI_['/subsystem=logging/logger=*:read-resource'].execute.logger_eq_jacorb.result.level}
+ * #{_CLI_['/subsystem=logging/logger=*:read-resource'].execute['/subsystem=logging/logger=jacorb'].result.level}
+ * </pre>
+ * The first form matches the last segment of the address.  The index is built the first time it is used.
+ */
+public final class AddressedResultList extends AbstractList<ModelNode> implements RandomAccess {
+
+    private final List<ModelNode> elements;
+
+    // built on first use
+    private volatile Map<AddressPath, ModelNode> byAddress;
+    private volatile Map<String, Map<String, ModelNode>> byLastSegment;
+
+    AddressedResultList(List<ModelNode> elements) {
+        this.elements = elements;
+    }
+
+    @Override
+    public ModelNode get(int index) {
+        return elements.get(index);
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * @return The element whose address is the given address, or <code>null</code> if there is none.
+     */
+    public ModelNode getByAddress(AddressPath address) {
+        if (byAddress == null) buildIndex();
+        return byAddress.get(address);
+    }
+
+    /**
+     * @return The first element whose address ends with key=value, or <code>null</code> if there is none.
+     */
+    public ModelNode getByLastSegment(String key, String value) {
+        if (byLastSegment == null) buildIndex();
+        Map<String, ModelNode> values = byLastSegment.get(key);
+        if (values == null) return null;
+        return values.get(value);
+    }
+
+    private synchronized void buildIndex() {
+        if (byAddress != null) return;
+
+        Map<AddressPath, ModelNode> addresses = new HashMap<AddressPath, ModelNode>(elements.size() * 2);
+        Map<String, Map<String, ModelNode>> lastSegments = new HashMap<String, Map<String, ModelNode>>();
+        for (ModelNode element : elements) {
+            if (!element.hasDefined("address")) continue;
+
+            AddressPath address;
+            try {
+                address = AddressPath.of(element.get("address"));
+            } catch (IllegalArgumentException e) {
+                continue; // not an address
+            }
+            if (address.isRoot() || addresses.containsKey(address)) continue;
+            addresses.put(address, element);
+
+            Map<String, ModelNode> values = lastSegments.get(address.getKey());
+            if (values == null) {
+                values = new HashMap<String, ModelNode>();
+                lastSegments.put(address.getKey(), values);
+            }
+            if (!values.containsKey(address.getValue())) values.put(address.getValue(), element);
+        }
+
+        byLastSegment = lastSegments;
+        byAddress = addresses;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * A numeric attribute summed up over every resource that matches an address, such as the active sessions of every
+ * server in a server group:
+ * <pre>
+ * #{_aggregate_['/server-group=main-server-group/deployment=app.war/subsystem=web:active-sessions'].sum}
+ * #{_aggregate_['/host=*&#47;server=*&#47;subsystem=web/connector=http:requestCount'].average}
+ * </pre>
+ * The expression is an address and an attribute separated by a colon.  The address may contain wildcards, and in a
+ * domain it may start with server-group=name to mean every running server in that group.  All of the matching
+ * resources are read in parallel.  Each one is in {@link #getSamples()} with the time it took and, if it could
+ * not be read or is not a number, why.
+ *
+ * Within a Faces request the same expression is only evaluated once, so asking for the sum and the average costs
+ * one round of reads.
+ */
+public final class Aggregate {
+
+    private final String expression;
+    private final List<Sample> samples;
+    private final int count;
+    private final BigDecimal sum;
+    private final BigDecimal min;
+    private final BigDecimal max;
+
+    private Aggregate(String expression, List<Sample> samples) {
+        this.expression = expression;
+        this.samples = Collections.unmodifiableList(samples);
+
+        int n = 0;
+        BigDecimal total = BigDecimal.ZERO;
+        BigDecimal lowest = null;
+        BigDecimal highest = null;
+        for (Sample sample : samples) {
+            if (sample.value == null) continue;
+            n++;
+            total = total.add(sample.value);
+            if ((lowest == null) || (sample.value.compareTo(lowest) < 0)) lowest = sample.value;
+            if ((highest == null) || (sample.value.compareTo(highest) > 0)) highest = sample.value;
+        }
+        this.count = n;
+        this.sum = total;
+        this.min = lowest;
+        this.max = highest;
+    }
+
+    /**
+     * Read the attribute from every matching resource and add it up.
+     *
+     * @param expression An address and attribute such as /server-group=main-server-group/subsystem=web:active-sessions
+     */
+    static Aggregate of(String expression) throws IOException {
+        int colon = expression.lastIndexOf(':');
+        if ((colon < 0) || (colon == expression.length() - 1)) {
+            throw new IllegalArgumentException(expression + " is not an address and an attribute, such as /host=*/server=*:server-state");
+        }
+        AddressPath address = AddressPath.parse(expression.substring(0, colon).trim());
+        String attribute = expression.substring(colon + 1).trim();
+
+        List<AddressPath> addresses = new ArrayList<AddressPath>();
+        for (AddressPath selected : selectServerGroup(address)) {
+            addresses.addAll(WildcardFanOut.expand(selected));
+        }
+
+        ModelNode operation = new ModelNode();
+        operation.get("operation").set("read-attribute");
+        operation.get("name").set(attribute);
+
+        List<Sample> samples = new ArrayList<Sample>(addresses.size());
+        for (WildcardFanOut.Reply reply : WildcardFanOut.executeEach(operation, addresses)) {
+            samples.add(new Sample(reply));
+        }
+        return new Aggregate(expression, samples);
+    }
+
+    // Replace a leading server-group=name with /host=h/server=s for every running server in the group
+    private static List<AddressPath> selectServerGroup(AddressPath address) throws IOException {
+        List<AddressPath> segments = new ArrayList<AddressPath>();
+        for (AddressPath path = address; !path.isRoot(); path = path.getParent()) {
+            segments.add(0, path);
+        }
+        if (segments.isEmpty() || !segments.get(0).getKey().equals("server-group")) {
+            return Collections.singletonList(address);
+        }
+        String group = segments.get(0).getValue();
+
+        // every host lists the configuration of its servers, including the group and whether the server is up
+        ModelNode operation = new ModelNode();
+        operation.get("operation").set("read-children-resources");
+        operation.get("child-type").set("server-config");
+        operation.get("include-runtime").set(true);
+        ModelNode hosts = WildcardFanOut.execute(withAddress(operation, AddressPath.ROOT.append("host", "*")));
+
+        List<AddressPath> selected = new ArrayList<AddressPath>();
+        for (ModelNode host : hosts.get("result").asList()) {
+            if (CliResolver.isOutcomeFailed(host) || !host.hasDefined("result")) continue;
+
+            AddressPath hostAddress = AddressPath.of(host.get("address"));
+            for (Property server : host.get("result").asPropertyList()) {
+                ModelNode config = server.getValue();
+                if (!group.equals("*") && !group.equals(config.get("group").asString())) continue;
+                if (config.hasDefined("status") && !config.get("status").asString().equals("STARTED")) continue;
+
+                AddressPath serverAddress = hostAddress.append("server", server.getName());
+                for (int i = 1; i < segments.size(); i++) {
+                    serverAddress = serverAddress.append(segments.get(i).getKey(), segments.get(i).getValue());
+                }
+                selected.add(serverAddress);
+            }
+        }
+        return selected;
+    }
+
+    private static ModelNode withAddress(ModelNode operation, AddressPath address) {
+        operation.get("address").set(address.toModelNode());
+        return operation;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return How many resources gave a number.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return How many resources could not be read or did not give a number.
+     */
+    public int getFailedCount() {
+        return samples.size() - count;
+    }
+
+    public BigDecimal getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The mean, or <code>null</code> if no resource gave a number.
+     */
+    public BigDecimal getAverage() {
+        if (count == 0) return null;
+        return sum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL64);
+    }
+
+    /**
+     * @return The smallest value, or <code>null</code> if no resource gave a number.
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * @return The largest value, or <code>null</code> if no resource gave a number.
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    /**
+     * @return What each matching resource gave, in the order the resources were found.
+     */
+    public List<Sample> getSamples() {
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum);
+    }
+
+    /**
+     * The value read from one resource.
+     */
+    public static final class Sample {
+        private final String address;
+        private final BigDecimal value;
+        private final long latencyMillis;
+        private final String failure;
+
+        Sample(WildcardFanOut.Reply reply) {
+            this.address = reply.address.toString();
+            this.latencyMillis = reply.nanos / 1000000;
+
+            ModelNode result = reply.response.get("result");
+            if (CliResolver.isOutcomeFailed(reply.response)) {
+                this.value = null;
+                this.failure = reply.response.get("failure-description").asString();
+            } else if (!isNumber(result)) {
+                this.value = null;
+                this.failure = result.isDefined() ? "Not a number: " + result.asString() : "Undefined";
+            } else {
+                this.value = result.asBigDecimal();
+                this.failure = null;
+            }
+        }
+
+        private static boolean isNumber(ModelNode node) {
+            ModelType type = node.getType();
+            return (type == ModelType.INT) || (type == ModelType.LONG) || (type == ModelType.DOUBLE)
+                    || (type == ModelType.BIG_DECIMAL) || (type == ModelType.BIG_INTEGER);
+        }
+
+        /**
+         * @return The address of the resource, such as /host=master/server=server-one/subsystem=web
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * @return The value, or <code>null</code> if the resource could not be read or did not give a number.
+         */
+        public BigDecimal getValue() {
+            return value;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public boolean isFailed() {
+            return value == null;
+        }
+
+        /**
+         * @return Why there is no value, or <code>null</code> if there is one.
+         */
+        public String getFailure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent map that holds at most a fixed number of entries.  When it is full, the oldest entries are evicted
+ * first.  Hits and misses are counted.
+ *
+ * Removing an entry does not search the eviction queue for it.  The queue entry is left behind and skipped when it
+ * comes up, and the queue is purged of such entries whenever they outnumber the live ones, so that remove stays cheap
+ * for callers that remove many entries at once.
+ */
+class BoundedCache<K, V> {
+
+    private final ConcurrentMap<K, Node<K, V>> entries = new ConcurrentHashMap<K, Node<K, V>>();
+    private final Queue<Node<K, V>> insertionOrder = new ConcurrentLinkedQueue<Node<K, V>>();
+    private final AtomicInteger queued = new AtomicInteger(); // live and removed nodes in insertionOrder
+    private final AtomicBoolean purging = new AtomicBoolean();
+    private final int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    BoundedCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        this.maxEntries = maxEntries;
+    }
+
+    V get(K key) {
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * Get a value without counting a hit or a miss.
+     */
+    V peek(K key) {
+        Node<K, V> node = entries.get(key);
+        return (node == null) ? null : node.value;
+    }
+
+    void put(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, value);
+        Node<K, V> existing = entries.putIfAbsent(key, node);
+        if (existing != null) {
+            existing.value = value;
+            return;
+        }
+
+        insertionOrder.add(node);
+        if ((queued.incrementAndGet() > 2 * maxEntries) && purging.compareAndSet(false, true)) {
+            try {
+                purge();
+            } finally {
+                purging.set(false);
+            }
+        }
+        while (entries.size() > maxEntries) {
+            Node<K, V> eldest = insertionOrder.poll();
+            if (eldest == null) break;
+            queued.decrementAndGet();
+            entries.remove(eldest.key, eldest); // already gone if it was removed, or replaced by a newer node
+        }
+    }
+
+    void remove(K key) {
+        entries.remove(key);
+    }
+
+    Set<K> keys() {
+        return entries.keySet();
+    }
+
+    void clear() {
+        entries.clear();
+        insertionOrder.clear();
+        queued.set(0);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int maxSize() {
+        return maxEntries;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    // drop the queue entries of removed nodes
+    private void purge() {
+        for (Iterator<Node<K, V>> i = insertionOrder.iterator(); i.hasNext();) {
+            Node<K, V> node = i.next();
+            if (entries.get(node.key) != node) {
+                i.remove();
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
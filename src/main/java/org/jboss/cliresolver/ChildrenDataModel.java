@@ -0,0 +1,307 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.el.ELException;
+import javax.faces.model.DataModel;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+
+/**
+ * A lazy, paged DataModel over the children of one type, such as every logger or every deployment.
+ *
+ * Listing children with <code>_CLI_['/subsystem=logging/logger=*:read-resource']</code> reads the whole collection
+ * on every render.  This model only reads the names of the children to get the row count.  Rows are read in
+ * batches with one composite operation, starting at the first row the data table asks for, so a paged table costs
+ * about one batch per render no matter how big the collection is:
+ * <pre>
+ * &lt;h:dataTable value="#{subsystem_eq_logging.logger_eq__astk_._dataModel_}" var="logger" first="0" rows="20"&gt;
+ *     &lt;h:column&gt;#{logger.result.level}&lt;/h:column&gt;
+ * &lt;/h:dataTable&gt;
+ * </pre>
+ * Each row has the same shape as an element of a wildcard read-resource result: address, outcome and result.
+ *
+ * Rows can be sorted on an attribute with <code>#{subsystem_eq_logging.logger_eq__astk_._dataModel_.sortedBy('level')}</code>
+ * or <code>reverseSortedBy('level')</code>.  Sorting reads that one attribute of every child in a single wildcard
+ * read-attribute; the rest of each row is still read a batch at a time.
+ *
+ * A model is meant to live for one render.  It does not notice children that are added or removed after the names
+ * were read.
+ */
+public class ChildrenDataModel extends DataModel<ModelNode> {
+
+    public static final String BATCH_SIZE = "org.jboss.cliresolver.dataModel.batchSize";
+
+    private static final int defaultBatchSize = Settings.getInt(BATCH_SIZE, 50);
+
+    private AddressPath children;
+    private final String sortAttribute;
+    private final boolean ascending;
+    private final int batchSize;
+
+    // read when first needed
+    private List<String> names;
+
+    // rows that have been read, by row index
+    private final Map<Integer, ModelNode> rows = new HashMap<Integer, ModelNode>();
+
+    private int rowIndex = -1;
+
+    /**
+     * @param children An address whose last segment is a wildcard, such as /subsystem=logging/logger=*
+     */
+    public ChildrenDataModel(AddressPath children) {
+        this(children, null, true, defaultBatchSize);
+    }
+
+    ChildrenDataModel(AddressPath children, String sortAttribute, boolean ascending, int batchSize) {
+        checkAddress(children);
+        this.children = children;
+        this.sortAttribute = sortAttribute;
+        this.ascending = ascending;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    private static void checkAddress(AddressPath children) {
+        if ((children == null) || children.isRoot() || !children.getValue().equals("*") || children.getParent().isWildcard()) {
+            throw new IllegalArgumentException(children + " is not an address ending in a single wildcard, such as /subsystem=logging/logger=*");
+        }
+    }
+
+    /**
+     * @return A new model over the same children, sorted on the value of an attribute.
+     */
+    public ChildrenDataModel sortedBy(String attribute) {
+        return new ChildrenDataModel(children, attribute, true, batchSize);
+    }
+
+    /**
+     * @return A new model over the same children, sorted on the value of an attribute from highest to lowest.
+     */
+    public ChildrenDataModel reverseSortedBy(String attribute) {
+        return new ChildrenDataModel(children, attribute, false, batchSize);
+    }
+
+    /**
+     * @return The name of the child at the current row, such as jacorb for /subsystem=logging/logger=jacorb
+     */
+    public String getRowName() {
+        if (!isRowAvailable()) return null;
+        return names().get(rowIndex);
+    }
+
+    @Override
+    public int getRowCount() {
+        return names().size();
+    }
+
+    @Override
+    public boolean isRowAvailable() {
+        return (rowIndex >= 0) && (rowIndex < names().size());
+    }
+
+    @Override
+    public ModelNode getRowData() {
+        if (rowIndex < 0) return null;
+        if (!isRowAvailable()) throw new IllegalArgumentException("No row at index " + rowIndex);
+
+        ModelNode row = rows.get(rowIndex);
+        if (row == null) {
+            readBatch(rowIndex);
+            row = rows.get(rowIndex);
+        }
+        return row;
+    }
+
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    @Override
+    public void setRowIndex(int rowIndex) {
+        if (rowIndex < -1) throw new IllegalArgumentException("Invalid row index " + rowIndex);
+        this.rowIndex = rowIndex;
+    }
+
+    /**
+     * @return The address of the children, such as /subsystem=logging/logger=*
+     */
+    @Override
+    public Object getWrappedData() {
+        return children;
+    }
+
+    @Override
+    public void setWrappedData(Object data) {
+        AddressPath address = (AddressPath) data;
+        checkAddress(address);
+        children = address;
+        names = null;
+        rows.clear();
+        rowIndex = -1;
+    }
+
+    private List<String> names() {
+        if (names != null) return names;
+
+        try {
+            names = (sortAttribute == null) ? readNames() : readSortedNames();
+        } catch (IOException e) {
+            throw new ELException(e);
+        }
+        return names;
+    }
+
+    private List<String> readNames() throws IOException {
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(children.getParent().toModelNode());
+        operation.get("operation").set("read-children-names");
+        operation.get("child-type").set(children.getKey());
+        ModelNode result = execute(operation);
+
+        List<String> childNames = new ArrayList<String>();
+        for (ModelNode name : result.asList()) {
+            childNames.add(name.asString());
+        }
+        return childNames;
+    }
+
+    // one wildcard read-attribute gives the sort key of every child
+    private List<String> readSortedNames() throws IOException {
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(children.toModelNode());
+        operation.get("operation").set("read-attribute");
+        operation.get("name").set(sortAttribute);
+        ModelNode result = execute(operation);
+
+        final Map<String, ModelNode> keys = new HashMap<String, ModelNode>();
+        List<String> sorted = new ArrayList<String>();
+        for (ModelNode element : result.asList()) {
+            if (CliResolver.isOutcomeFailed(element)) continue;
+            String name = AddressPath.of(element.get("address")).getValue();
+            keys.put(name, element.get("result"));
+            sorted.add(name);
+        }
+
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int comparison = compareValues(keys.get(a), keys.get(b));
+                if (comparison == 0) comparison = a.compareTo(b);
+                return ascending ? comparison : -comparison;
+            }
+        });
+        return sorted;
+    }
+
+    // undefined values sort last, numbers by value and everything else as strings
+    static int compareValues(ModelNode a, ModelNode b) {
+        boolean aDefined = a.isDefined();
+        boolean bDefined = b.isDefined();
+        if (!aDefined || !bDefined) {
+            if (aDefined == bDefined) return 0;
+            return aDefined ? -1 : 1;
+        }
+
+        if (isNumber(a) && isNumber(b)) return a.asBigDecimal().compareTo(b.asBigDecimal());
+        return a.asString().compareTo(b.asString());
+    }
+
+    private static boolean isNumber(ModelNode node) {
+        switch (node.getType()) {
+            case INT:
+            case LONG:
+            case DOUBLE:
+            case BIG_DECIMAL:
+            case BIG_INTEGER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // read the rows from first up to a full batch in one composite operation
+    private void readBatch(int first) {
+        List<String> childNames = names();
+        int last = Math.min(first + batchSize, childNames.size());
+
+        ModelNode composite = new ModelNode();
+        composite.get("address").setEmptyList();
+        composite.get("operation").set("composite");
+        composite.get("operation-headers", "rollback-on-runtime-failure").set(false);
+        ModelNode steps = composite.get("steps").setEmptyList();
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = first; i < last; i++) {
+            if (rows.containsKey(i)) continue;
+
+            ModelNode step = new ModelNode();
+            step.get("address").set(childAddress(childNames.get(i)));
+            step.get("operation").set("read-resource");
+            step.get("include-runtime").set(true);
+            steps.add(step);
+            indexes.add(i);
+        }
+
+        ModelNode stepResults;
+        try {
+            stepResults = CliResolver.dmrClient().execute(composite).get("result");
+        } catch (IOException e) {
+            throw new ELException(e);
+        }
+
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            ModelNode stepResult = stepResults.get("step-" + (i + 1));
+
+            ModelNode row = new ModelNode();
+            row.get("address").set(childAddress(childNames.get(index)));
+            if (stepResult.isDefined()) {
+                row.get("outcome").set(stepResult.get("outcome"));
+                if (stepResult.hasDefined("result")) row.get("result").set(stepResult.get("result"));
+                if (stepResult.hasDefined("failure-description")) row.get("failure-description").set(stepResult.get("failure-description"));
+            } else {
+                row.get("outcome").set("failed");
+            }
+            row.protect();
+            rows.put(index, row);
+        }
+    }
+
+    private ModelNode childAddress(String name) {
+        return children.getParent().append(children.getKey(), name).toModelNode();
+    }
+
+    private ModelNode execute(ModelNode operation) throws IOException {
+        ModelNode result = CliResolver.dmrClient().execute(operation);
+        if (CliResolver.isOutcomeFailed(result)) {
+            throw new DmrOperationFailedException(operation, result);
+        }
+        ModelNode value = result.get("result");
+        if (value.getType() != ModelType.LIST) return new ModelNode().setEmptyList();
+        return value;
+    }
+}
@@ -20,24 +20,16 @@ package org.jboss.cliresolver;
 
 import java.beans.FeatureDescriptor;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import javax.el.ELContext;
 import javax.el.ELException;
 import javax.el.ELResolver;
-import org.jboss.as.cli.CliInitializationException;
 import org.jboss.as.cli.CommandContext;
-import org.jboss.as.cli.CommandContextFactory;
 import org.jboss.as.cli.CommandFormatException;
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
-import org.jboss.dmr.Property;
 
 /**
  * This EL resolver knows how to get/set values from the AS7 management model.
@@ -51,40 +43,15 @@ public class CliResolver extends ELResolver {
     public static final String IS_DOMAIN = "_isDomain_";
     public static final String CLI = "_CLI_";
     public static final String AS_PROP_LIST = "_asPropertyList_";
+    public static final String METRICS = "_metrics_";
+    public static final String DATA_MODEL = "_dataModel_";
+    public static final String AGGREGATE = "_aggregate_";
+    public static final String SNAPSHOT_AGE = "_snapshotAge_";
+    public static final String STALE = "_stale_";
+    public static final String STALE_FALLBACK = "org.jboss.cliresolver.staleFallback";
 
-    private static final boolean isDomain;
-    private static final ModelControllerClient localDmrClient = ManagementService.getClient();
-    private static ModelControllerClient domainDmrClient = null;
-
-    // cliContext only used to convert CLI command strings to ModelNode.
-    // This should not connect to any server
-    private static final CommandContext cliContext;
-
-    static {
-        ModelNode readLaunchType = new ModelNode();
-        readLaunchType.get("address").setEmptyList();
-        readLaunchType.get("operation").set("read-attribute");
-        readLaunchType.get("name").set("launch-type");
-
-        try {
-            ModelNode result = localDmrClient.execute(readLaunchType);
-            isDomain = !result.get("result").asString().equals("STANDALONE");
-
-            if (isDomain) {
-                InetAddress domainAddress = InetAddress.getByName(System.getProperty("jboss.domain.master.address"));
-                int domainPort = Integer.parseInt(System.getProperty("jboss.domain.master.port", "9999"));
-                domainDmrClient = ModelControllerClient.Factory.create(domainAddress, domainPort);
-            }
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
-        }
-
-        try {
-            cliContext = CommandContextFactory.getInstance().newCommandContext();
-        } catch (CliInitializationException e) {
-            throw new IllegalStateException(e);
-        }
-    }
+    // serve the last cached value of an attribute when it can't be read, and mark it with _stale_
+    private final boolean staleFallback = Settings.getBoolean(STALE_FALLBACK, true);
 
     /**
      * Create a new CliResolver.
@@ -104,19 +71,44 @@ public class CliResolver extends ELResolver {
 
     @Override
     public Class<?> getType(ELContext elCtx, Object base, Object property) {
-        String strProperty = property.toString();
-        strProperty = replaceCharsNotAllowedInEL(strProperty.trim());
+        ElToken token = ElToken.of(property);
+        String strProperty = token.name();
 
         if (strProperty.equals(IS_DOMAIN)) {
             elCtx.setPropertyResolved(true);
             return Boolean.class;
         }
 
+        if (strProperty.equals(METRICS)) {
+            elCtx.setPropertyResolved(true);
+            return List.class;
+        }
+
+        if (strProperty.equals(DATA_MODEL)) {
+            elCtx.setPropertyResolved(true);
+            return ChildrenDataModel.class;
+        }
+
         if (strProperty.equals(CLI)) {
             elCtx.setPropertyResolved(true);
             return String.class;
         }
 
+        if (strProperty.equals(AGGREGATE)) {
+            elCtx.setPropertyResolved(true);
+            return String.class;
+        }
+
+        if (strProperty.equals(SNAPSHOT_AGE)) {
+            elCtx.setPropertyResolved(true);
+            return Long.class;
+        }
+
+        if (strProperty.equals(STALE)) {
+            elCtx.setPropertyResolved(true);
+            return Boolean.class;
+        }
+
         if (strProperty.equals(AS_PROP_LIST)) {
             elCtx.setPropertyResolved(true);
             return List.class;
@@ -127,6 +119,23 @@ public class CliResolver extends ELResolver {
             return ModelNode.class;
         }
 
+        if (token.isAddress() && ((base == null) || (base instanceof AddressPath))) {
+            elCtx.setPropertyResolved(true);
+            return AddressPath.class;
+        }
+
+        if ((base instanceof AddressedResultList) && (token.kind() == ElToken.Kind.ADDRESS)) {
+            elCtx.setPropertyResolved(true);
+            return ModelNode.class;
+        }
+
+        PropertyListView propertyList = propertyListView(base);
+        if (propertyList != null) {
+            elCtx.setPropertyResolved(true);
+            Object value = propertyList.getConverted(token.raw(), this);
+            return (value == null) ? null : value.getClass();
+        }
+
         if (base == null) {
             return null;
         }
@@ -136,20 +145,21 @@ public class CliResolver extends ELResolver {
             return ModelNode.class;
         }
 
-        if (!(base instanceof ModelNode)) {
+        if (base.equals(AGGREGATE)) {
+            elCtx.setPropertyResolved(true);
+            return Aggregate.class;
+        }
+
+        AddressPath address = pathOf(base);
+        if (address == null) {
             return null;
         }
 
         // I can handle this
         elCtx.setPropertyResolved(true);
 
-        ModelNode operation = ((ModelNode) base).clone();
-        operation.get("operation").set("read-resource-description");
-
         try {
-            ModelNode result = dmrClient().execute(operation);
-            ModelType type = result.get("result", "attributes", strProperty, "type").asType();
-            return convertToJavaType(type);
+            return DescriptionCache.getInstance().getConverter(address, strProperty).getJavaType();
         } catch (IOException e) {
             throw new ELException(e);
         }
@@ -157,29 +167,77 @@ public class CliResolver extends ELResolver {
 
     @Override
     public Object getValue(ELContext elCtx, Object base, Object property) {
-        if (property.equals(IS_DOMAIN)) {
+        ElToken token = ElToken.of(property);
+        String strProperty = token.name();
+
+        if (strProperty.equals(IS_DOMAIN)) {
             elCtx.setPropertyResolved(true);
-            return isDomain;
+            return ClientBootstrap.isDomain();
+        }
+
+        if (strProperty.equals(METRICS)) {
+            elCtx.setPropertyResolved(true);
+            return ManagementMetrics.getInstance().getOperations();
+        }
+
+        if (strProperty.equals(DATA_MODEL)) {
+            elCtx.setPropertyResolved(true);
+            if (!(base instanceof AddressPath)) {
+                throw new ELException(DATA_MODEL + " must follow an address such as subsystem_eq_logging.logger_eq__astk_");
+            }
+            try {
+                return new ChildrenDataModel((AddressPath) base);
+            } catch (IllegalArgumentException e) {
+                throw new ELException(e.getMessage());
+            }
         }
 
-        if (property.equals(CLI)) {
+        if (strProperty.equals(CLI)) {
             elCtx.setPropertyResolved(true);
             // return CLI as the base
             return CLI;
         }
 
-        if (property.equals(AS_PROP_LIST)) {
+        if (strProperty.equals(AGGREGATE)) {
+            elCtx.setPropertyResolved(true);
+            // return AGGREGATE as the base
+            return AGGREGATE;
+        }
+
+        if (strProperty.equals(SNAPSHOT_AGE)) {
             elCtx.setPropertyResolved(true);
+            return ModelSnapshot.getInstance().getAgeMillis();
+        }
+
+        if (strProperty.equals(STALE)) {
+            elCtx.setPropertyResolved(true);
+            RequestCache requestCache = RequestCache.current();
+            if (requestCache == null) return false;
+            if (base instanceof AddressPath) return requestCache.isStale((AddressPath) base);
+            return requestCache.isStale();
+        }
+
+        if (strProperty.equals(AS_PROP_LIST)) {
+            elCtx.setPropertyResolved(true);
+            PropertyListView propertyList = propertyListView(base);
+            if (propertyList != null) return propertyList.asPropertyList();
             ModelNode node = (ModelNode)base;
             return node.asPropertyList();
         }
 
-        boolean isPropertyList = isPropertyList(base);
+        if (base instanceof AddressedResultList) {
+            return getResultByAddress(elCtx, (AddressedResultList) base, token);
+        }
+
+        PropertyListView propertyList = propertyListView(base);
+        boolean isPropertyList = (propertyList != null);
 
         if ((base != null)
+                && !(base instanceof AddressPath)
                 && !(base instanceof ModelNode)
                 && !isPropertyList
-                && !base.equals(CLI)) {
+                && !base.equals(CLI)
+                && !base.equals(AGGREGATE)) {
             return null;
         }
 
@@ -191,10 +249,7 @@ public class CliResolver extends ELResolver {
             }
         }
 
-        String strProperty = (String) property;
-        strProperty = replaceCharsNotAllowedInEL(strProperty.trim());
-
-        boolean propIsAddress = isAddress(strProperty);
+        boolean propIsAddress = token.isAddress();
         if ((base == null) && (!propIsAddress)) {
             return null;
         }
@@ -203,44 +258,44 @@ public class CliResolver extends ELResolver {
         elCtx.setPropertyResolved(true);
 
         if (base == null) { // property must be an address
-            ModelNode operation = new ModelNode();
-            if (strProperty.equals(ROOT)) {
-                operation.get("address").setEmptyList();
-                return operation;
-            }
-
-            return addAddress(operation, strProperty);
+            return addAddress(AddressPath.ROOT, token);
         }
 
         if (isPropertyList) { // base is List<Property>
-            List<Property> propList = ((ModelNode) base).asPropertyList();
-            for (Property prop : propList) {
-                if (prop.getName().equals(property)) {
-                    return convertValueToJavaType(prop.getValue());
-                }
-            }
-
-            return null; // property not found
+            return propertyList.getConverted(token.raw(), this); // null if the property is not found
         }
 
         if (base.equals(CLI)) {
             return new NativeExecutor(strProperty);
         }
 
-        // base must be a ModelNode
+        if (base.equals(AGGREGATE)) {
+            return aggregate(strProperty);
+        }
+
+        if (base instanceof AddressPath) {
+            AddressPath address = (AddressPath) base;
+            if (propIsAddress) {
+                return addAddress(address, token);
+            }
+
+            // property must be an attribute at the address
+            return readAttributeValue(address, strProperty);
+        }
+
+        // base must be a ModelNode, such as the result of a CLI command
         ModelNode modelNode = (ModelNode) base;
 
         if (propIsAddress) {
-            return addAddress(modelNode, strProperty);
+            return addAddress(pathOf(modelNode), token);
         }
 
-        // POTENTIAL BUG: if strProperty is "address" this could return the address path
-        // we've been building.  Use a different name for our address path until we are ready to execute the modelNode?
         if (modelNode.hasDefined(strProperty)) { // property is an attribute of the current base
             ModelNode value = modelNode.get(strProperty);
 
             // We handle property lists ourselves but allow another resolver
-            // to handle an ordinary List<ModelNode>
+            // to handle an ordinary List<ModelNode>.  The node itself is returned; its indexed view is found again
+            // when it is used as a base.
             if (isPropertyList(value)) {
                 return value;
             }
@@ -249,43 +304,84 @@ public class CliResolver extends ELResolver {
         }
 
         // property must be an attribute at the address specified in the ModelNode
-        // Get the value from the management model
-        modelNode = modelNode.clone();
-        modelNode.get("operation").set("read-attribute");
-        modelNode.get("name").set(strProperty);
+        return readAttributeValue(pathOf(modelNode), strProperty);
+    }
 
-        Object finalResult = null;
+    // Get the value of an attribute from the management model
+    private Object readAttributeValue(AddressPath address, String strProperty) {
         try {
-            ModelNode result = dmrClient().execute(modelNode);
-            finalResult = convertValueToJavaType(result.get("result"));
-            if (!(finalResult instanceof List)) {
-                return finalResult;
-            } else {
-                return convertListElements(modelNode.get("address"), (List<ModelNode>) finalResult, strProperty);
-            }
+            return convertAttributeValue(address, strProperty, readAttribute(address, strProperty));
         } catch (IOException e) {
             throw new ELException(e);
         }
     }
 
+    // Read an attribute.  Use a cached value if it is still fresh.  Otherwise, use the resource already read at
+    // this address during the current request if there is one.  If the management model can't be reached, fall
+    // back to the last cached value.
+    private ModelNode readAttribute(AddressPath address, String name) throws IOException {
+        RequestCache requestCache = RequestCache.current();
+        ValueCache valueCache = ValueCache.getInstance();
+        ModelNode value = ModelSnapshot.getInstance().get(address, name);
+        if (value == null) value = valueCache.get(address, name);
+        if (value != null) {
+            if (requestCache != null) requestCache.attributeRead(address, name);
+            return value;
+        }
+
+        long generation = valueCache.generation();
+        ModelNode result = null;
+        try {
+            if (requestCache != null) {
+                requestCache.checkReachable(address);
+                ModelNode resource = requestCache.getResource(address);
+                if ((resource != null) && resource.has(name)) value = resource.get(name);
+            }
+
+            if (value == null) {
+                ModelNode operation = new ModelNode();
+                operation.get("address").set(address.toModelNode());
+                operation.get("operation").set("read-attribute");
+                operation.get("name").set(name);
+                result = WildcardFanOut.isFanOut(operation) ? WildcardFanOut.execute(operation) : dmrClient().execute(operation);
+            }
+        } catch (ManagementUnavailableException e) {
+            // shed, timed out or the target is down.  An old value is better than none, as long as the page can tell.
+            if (requestCache != null) requestCache.markUnreachable(address, e);
+            value = staleFallback ? valueCache.getStale(address, name) : null;
+            if (value == null) throw e;
+            if (requestCache != null) requestCache.markStale(address);
+            return value;
+        }
+        if (result != null) {
+            if (isOutcomeFailed(result)) return result.get("result");
+            value = result.get("result");
+        }
+
+        if (requestCache != null) requestCache.attributeRead(address, name);
+        valueCache.put(address, name, value, generation);
+        return value;
+    }
+
     @Override
     public boolean isReadOnly(ELContext elCtx, Object base, Object property) {
-        if (base == null) {
-            return false;
+        if (((base instanceof AddressPath) && DATA_MODEL.equals(ElToken.of(property).name()))
+                || isPropertyList(base)) {
+            elCtx.setPropertyResolved(true);
+            return true;
         }
-        if (!(base instanceof ModelNode)) {
+
+        AddressPath address = pathOf(base);
+        if (address == null) {
             return false;
         }
 
         // I'll handle this
         elCtx.setPropertyResolved(true);
 
-        ModelNode operation = ((ModelNode) base).clone();
-        operation.get("operation").set("read-resource-description");
-
         try {
-            ModelNode result = dmrClient().execute(operation);
-            String accessType = result.get("result", "attributes", (String) property, "access-type").asString();
+            ModelNode description = DescriptionCache.getInstance().getAttributeDescription(address, ElToken.of(property).name());
+            String accessType = DescriptionCache.lookup(description, "access-type").asString();
             return !accessType.equals("read-write");
         } catch (IOException e) {
             throw new ELException(e);
@@ -294,30 +390,39 @@ public class CliResolver extends ELResolver {
 
     @Override
     public void setValue(ELContext elCtx, Object base, Object property, Object value) {
-        if (base == null) {
-            return;
-        }
-        if (!(base instanceof ModelNode)) {
+        AddressPath address = pathOf(base);
+        if (address == null) {
             return;
         }
 
         // I'll handle this
         elCtx.setPropertyResolved(true);
 
-        String strProperty = (String) property;
-        strProperty = replaceCharsNotAllowedInEL(strProperty.trim());
-
-        ModelNode operation = (ModelNode) base;
-        operation = operation.clone();
+        String strProperty = ElToken.of(property).name();
 
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(address.toModelNode());
         operation.get("name").set(strProperty);
 
-        Class type = getType(elCtx, base, property);
-        if ((value == null) || (type == null)) {
+        if (value == null) {
             operation.get("operation").set("undefine-attribute");
         } else {
             operation.get("operation").set("write-attribute");
-            setValueAttribute(operation, type, value);
+            try {
+                DescriptionCache.getInstance().getConverter(address, strProperty).write(operation.get("value"), value);
+            } catch (IOException e) {
+                throw new ELException(e);
+            }
+        }
+
+        ValueCache.getInstance().invalidate(address);
+        ModelSnapshot.getInstance().invalidate(address);
+        RequestCache requestCache = RequestCache.current();
+        if (requestCache != null) {
+            requestCache.invalidate(address);
+
+            // sent with the rest of the form by WriteBatchPhaseListener
+            if (requestCache.bufferWrite(operation)) return;
         }
 
         try {
@@ -327,6 +432,10 @@ public class CliResolver extends ELResolver {
             }
         } catch (IOException e) {
             throw new ELException(e);
+        } finally {
+            // another thread may have read the old value while the write was in progress
+            ValueCache.getInstance().invalidate(address);
+            ModelSnapshot.getInstance().invalidate(address);
         }
     }
 
@@ -335,221 +444,100 @@ public class CliResolver extends ELResolver {
         return !outcome.equals("success");
     }
 
-    private boolean isPropertyList(Object obj) {
-        if (obj == null) {
-            return false;
-        }
+    boolean isPropertyList(Object obj) {
+        return propertyListView(obj) != null;
+    }
+
+    // Get the indexed view of a property list.  Within a Faces request the same node is only classified and indexed
+    // once, however many expressions use it.
+    private PropertyListView propertyListView(Object obj) {
         if (!(obj instanceof ModelNode)) {
-            return false;
+            return null;
         }
         ModelNode node = (ModelNode) obj;
         if (node.getType() != ModelType.LIST) {
-            return false;
-        }
-        List<ModelNode> list = node.asList();
-        if (list.isEmpty()) {
-            return false;
-        }
-        for (ModelNode element : list) { // every element must be a property
-            if (element.getType() != ModelType.PROPERTY) {
-                return false;
-            }
+            return null;
         }
 
-        return true;
-    }
-
-    private void setValueAttribute(ModelNode operation, Class type, Object value) {
-        ModelNode valueNode = operation.get("value");
-        if (type == null) {
-            return;  // value will be set to undefined
-        }
-        if (type.isAssignableFrom(ModelNode.class)) {
-            valueNode.set((ModelNode) value);
-        }
-        if (type.isAssignableFrom(BigDecimal.class)) {
-            valueNode.set((BigDecimal) value);
-        }
-        if (type.isAssignableFrom(BigInteger.class)) {
-            valueNode.set((BigInteger) value);
+        RequestCache requestCache = RequestCache.current();
+        if (requestCache == null) {
+            return PropertyListView.of(node);
         }
-        if (type.isAssignableFrom(Boolean.class)) {
-            valueNode.set((Boolean) value);
-        }
-        if (type.isAssignableFrom(byte[].class)) {
-            valueNode.set((byte[]) value);
-        }
-        if (type.isAssignableFrom(Double.class)) {
-            valueNode.set((Double) value);
-        }
-        if (type.isAssignableFrom(Integer.class)) {
-            valueNode.set((Integer) value);
-        }
-        if (type.isAssignableFrom(Collection.class)) {
-            valueNode.set((Collection) value);
-        }
-        if (type.isAssignableFrom(Long.class)) {
-            valueNode.set((Long) value);
-        }
-        if (type.isAssignableFrom(Object.class)) {
-            valueNode.set((ModelNode) value);
-        }
-        if (type.isAssignableFrom(Property.class)) {
-            valueNode.set((Property) value);
-        }
-        valueNode.set(value.toString()); // default to String
+        return requestCache.propertyListView(node);
     }
 
-    private Class<?> convertToJavaType(ModelType type) {
-        if (type == ModelType.BIG_DECIMAL) {
-            return BigDecimal.class;
-        }
-        if (type == ModelType.BIG_INTEGER) {
-            return BigInteger.class;
-        }
-        if (type == ModelType.BOOLEAN) {
-            return Boolean.class;
-        }
-        if (type == ModelType.BYTES) {
-            return byte[].class;
-        }
-        if (type == ModelType.DOUBLE) {
-            return Double.class;
-        }
-        if (type == ModelType.INT) {
-            return Integer.class;
-        }
-        if (type == ModelType.LIST) {
-            return Collection.class;
-        }
-        if (type == ModelType.LONG) {
-            return Long.class;
-        }
-        if (type == ModelType.OBJECT) {
-            return Object.class;
-        }
-        if (type == ModelType.PROPERTY) {
-            return Property.class;
-        }
-        if (type == ModelType.STRING) {
-            return String.class;
-        }
-        return null;
-    }
+    // Evaluate an aggregate expression, only once per Faces request
+    private Aggregate aggregate(String expression) {
+        RequestCache requestCache = RequestCache.current();
+        Aggregate aggregate = (requestCache == null) ? null : requestCache.getAggregate(expression);
+        if (aggregate != null) return aggregate;
 
-    private Object convertValueToJavaType(ModelNode node) {
-        if (!node.isDefined()) {
-            return null;
+        try {
+            aggregate = Aggregate.of(expression);
+        } catch (IOException e) {
+            throw new ELException(e);
+        } catch (IllegalArgumentException e) {
+            throw new ELException(e.getMessage());
         }
 
-        return convertValueToJavaType(node, node.getType());
+        if (requestCache != null) requestCache.putAggregate(expression, aggregate);
+        return aggregate;
     }
 
-    private Object convertValueToJavaType(ModelNode node, ModelType type) {
-        if (!node.isDefined()) {
-            return null;
+    // Find an element of a wildcard result by its address.  Anything else, such as an index, is left to the
+    // other resolvers.
+    private Object getResultByAddress(ELContext elCtx, AddressedResultList results, ElToken token) {
+        if (token.kind() == ElToken.Kind.ADDRESS) {
+            elCtx.setPropertyResolved(true);
+            return results.getByLastSegment(token.key(), token.value());
         }
 
-        if (type == ModelType.BIG_DECIMAL) {
-            return node.asBigDecimal();
-        }
-        if (type == ModelType.BIG_INTEGER) {
-            return node.asBigInteger();
-        }
-        if (type == ModelType.BOOLEAN) {
-            return node.asBoolean();
-        }
-        if (type == ModelType.BYTES) {
-            return node.asBytes();
-        }
-        if (type == ModelType.DOUBLE) {
-            return node.asDouble();
-        }
-        if (type == ModelType.INT) {
-            return node.asInt();
-        }
-        if (type == ModelType.LIST) {
-            return node.asList();
-        }
-        if (type == ModelType.LONG) {
-            return node.asLong();
-        }
-        if (type == ModelType.OBJECT) {
-            return node.asObject();
-        }
-        if (type == ModelType.PROPERTY) {
-            return node.asProperty();
-        }
-        if (type == ModelType.STRING) {
-            return node.asString();
-        }
-        if (type == ModelType.TYPE) {
-            return node.asType();
+        String raw = token.raw();
+        if (raw.startsWith("/")) {
+            elCtx.setPropertyResolved(true);
+            return results.getByAddress(AddressPath.parse(raw));
         }
+
         return null;
     }
 
-    // Convert the elements in a List<ModelNode> to some List<Class<?>> based on the resource description
-    private List convertListElements(ModelNode address, List<ModelNode> elements, String property) throws IOException {
-        // find the list type we need
-        ModelNode rscDesc = new ModelNode();
-        rscDesc.get("address").set(address.clone());
-        rscDesc.get("operation").set("read-resource-description");
-        ModelNode result = dmrClient().execute(rscDesc);
-        ModelNode valueType = result.get("result", "attributes", property, "value-type");
-
-        // TODO: handle complex value-types such as
-        // subsystem=datasources/installed-drivers
-        // right now we're just converting to String
-        ModelType type = ModelType.STRING; // if it's not a type, call it a String
-        if (valueType.getType() == ModelType.TYPE) type = valueType.asType();
-
-        // create a new list with the elements converted
-        List convertedList = new ArrayList(elements.size());
-        for (ModelNode element : elements) {
-            convertedList.add(convertValueToJavaType(element, type));
-        }
-
-        return convertedList;
+    Object convertValueToJavaType(ModelNode node) {
+        return ValueConverter.DYNAMIC.convert(node);
     }
 
-    private String replaceCharsNotAllowedInEL(String str) {
-        str = str.replace("_dash_", "-");
-        str = str.replace("_dot_", ".");
-        str = str.replace("_astk_", "*");
-        return str;
+    // Convert the value of an attribute to the Java type given by its description
+    Object convertAttributeValue(AddressPath address, String attribute, ModelNode value) throws IOException {
+        return DescriptionCache.getInstance().getConverter(address, attribute).convert(value);
     }
 
-    // add the address to the modelNode
-    private ModelNode addAddress(ModelNode operation, String property) {
-        ModelNode op = operation.clone();
-        ModelNode address = op.get("address");
-        address.add(makeAddress(property));
-        return op;
-    }
+    // Get the address a base refers to.  A ModelNode base is treated as an operation with an address.
+    private AddressPath pathOf(Object base) {
+        if (base instanceof AddressPath) return (AddressPath) base;
+        if (!(base instanceof ModelNode)) return null;
 
-    private ModelNode makeAddress(String property) {
-        ModelNode address = new ModelNode();
-        String lvalue = property.substring(0, property.indexOf("_eq_"));
-        String rvalue = property.substring(property.indexOf("_eq_") + 4);
-        address.get(lvalue).set(rvalue);
-        return address;
+        ModelNode operation = (ModelNode) base;
+        if (!operation.hasDefined("address")) return AddressPath.ROOT;
+        return AddressPath.of(operation.get("address"));
     }
 
-    private boolean isAddress(String property) {
-        return property.contains("_eq_") || property.equals(ROOT);
+    // add the address segment to the path
+    private AddressPath addAddress(AddressPath address, ElToken token) {
+        if (token.kind() == ElToken.Kind.ROOT) {
+            return AddressPath.ROOT;
+        }
+
+        return address.append(token.key(), token.value());
     }
 
+    // cliContext only used to convert CLI command strings to ModelNode.  It is not safe for concurrent use, so the
+    // resolver itself parses commands through CommandCompiler.
     public static CommandContext cliContext() {
-        return cliContext;
+        return ClientBootstrap.cliContext();
     }
 
     // return the correct DMR client depending on if we are running standalone or domain
     public static ModelControllerClient dmrClient() {
-        if (isDomain) {
-            return domainDmrClient;
-        }
-        return localDmrClient;
+        return ClientBootstrap.client();
     }
 
 }
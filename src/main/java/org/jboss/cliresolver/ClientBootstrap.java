@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.as.cli.CliInitializationException;
+import org.jboss.as.cli.CommandContext;
+import org.jboss.as.cli.CommandContextFactory;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Finds out how the server was launched and sets up the client the resolver talks to.
+ *
+ * Nothing is done until the first expression actually needs the management model, so pages that never use the
+ * resolver don't pay for it.  If setting up fails, for instance because the domain controller can't be reached,
+ * the caller gets an exception and the next caller after a short delay tries again.  By default the setup is also
+ * started in the background when the application is deployed, so that it is usually done before the first request.
+ * <pre>
+ * org.jboss.cliresolver.warmUp=true
+ * org.jboss.cliresolver.bootstrap.retryDelay=2000   (ms)
+ * </pre>
+ */
+final class ClientBootstrap {
+
+    static final String WARM_UP = "org.jboss.cliresolver.warmUp";
+    static final String RETRY_DELAY = "org.jboss.cliresolver.bootstrap.retryDelay";
+
+    private static final Logger log = Logger.getLogger(ClientBootstrap.class.getName());
+
+    private static final long retryDelay = Settings.getLong(RETRY_DELAY, 2000);
+
+    private static volatile Connection connection;
+
+    // guarded by ClientBootstrap.class
+    private static RuntimeException lastFailure;
+    private static long retryAt;
+    private static CommandContext cliContext;
+
+    private ClientBootstrap() {
+    }
+
+    /**
+     * @return The client for the domain controller in domain mode, otherwise the client for this server.
+     * @throws IllegalStateException if the client can't be set up yet.
+     */
+    static ModelControllerClient client() {
+        return connection().client;
+    }
+
+    static boolean isDomain() {
+        return connection().isDomain;
+    }
+
+    private static Connection connection() {
+        Connection result = connection;
+        if (result != null) return result;
+
+        synchronized (ClientBootstrap.class) {
+            if (connection != null) return connection;
+
+            if (System.currentTimeMillis() < retryAt) {
+                throw new IllegalStateException("The management client is not available yet", lastFailure);
+            }
+
+            try {
+                connection = connect();
+                lastFailure = null;
+                return connection;
+            } catch (RuntimeException e) {
+                fail(e);
+                throw e;
+            } catch (IOException e) {
+                IllegalStateException failure = new IllegalStateException("Unable to read the launch type of the server", e);
+                fail(failure);
+                throw failure;
+            }
+        }
+    }
+
+    private static void fail(RuntimeException e) {
+        lastFailure = e;
+        retryAt = System.currentTimeMillis() + retryDelay;
+        log.log(Level.WARNING, "Unable to set up the management client.  Trying again in " + retryDelay + "ms", e);
+    }
+
+    private static Connection connect() throws IOException {
+        ModelControllerClient localClient = ManagementService.getClient();
+
+        ModelNode readLaunchType = new ModelNode();
+        readLaunchType.get("address").setEmptyList();
+        readLaunchType.get("operation").set("read-attribute");
+        readLaunchType.get("name").set("launch-type");
+
+        ModelNode result = localClient.execute(readLaunchType);
+        if (CliResolver.isOutcomeFailed(result)) {
+            throw new IllegalStateException("Unable to read the launch type of the server: " + result.get("failure-description"));
+        }
+
+        boolean isDomain = !result.get("result").asString().equals("STANDALONE");
+        if (!isDomain || ManagementService.hasClientProvider()) {
+            return new Connection(isDomain, GovernedClient.wrap(GuardedClient.wrap(InstrumentedClient.wrap(localClient))), false);
+        }
+
+        String domainAddress = System.getProperty("jboss.domain.master.address");
+        int domainPort = Integer.parseInt(System.getProperty("jboss.domain.master.port", "9999"));
+        ModelControllerClient domainClient = DomainClientPool.forDomainController(domainAddress, domainPort);
+        return new Connection(true, GovernedClient.wrap(GuardedClient.wrap(InstrumentedClient.wrap(domainClient))), true);
+    }
+
+    /**
+     * The CommandContext is only used to convert CLI command strings to ModelNode.  It never connects to a server.
+     */
+    static synchronized CommandContext cliContext() {
+        if (cliContext == null) {
+            try {
+                cliContext = CommandContextFactory.getInstance().newCommandContext();
+            } catch (CliInitializationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return cliContext;
+    }
+
+    /**
+     * Set up the client and the CLI parser in the background, if warm up is turned on.
+     */
+    static void warmUp(Executor executor) {
+        if (!Settings.getBoolean(WARM_UP, true)) return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection();
+                    CommandCompiler.warmUp();
+                } catch (RuntimeException e) {
+                    // already logged.  The first request will try again.
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget the client.  The next call sets it up again.
+     */
+    static void reset() {
+        Connection old;
+        synchronized (ClientBootstrap.class) {
+            old = connection;
+            connection = null;
+            lastFailure = null;
+            retryAt = 0;
+        }
+
+        if ((old != null) && old.owned) {
+            try {
+                old.client.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Unable to close the domain client", e);
+            }
+        }
+    }
+
+    private static final class Connection {
+        final boolean isDomain;
+        final ModelControllerClient client;
+        final boolean owned; // opened here, so it is closed here
+
+        Connection(boolean isDomain, ModelControllerClient client, boolean owned) {
+            this.isDomain = isDomain;
+            this.client = client;
+            this.owned = owned;
+        }
+    }
+}
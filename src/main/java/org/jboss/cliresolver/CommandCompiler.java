@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.as.cli.CliInitializationException;
+import org.jboss.as.cli.CommandContext;
+import org.jboss.as.cli.CommandContextFactory;
+import org.jboss.as.cli.CommandFormatException;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Turns CLI command strings into DMR operations.
+ *
+ * The same commands are evaluated over and over, often once per row of a data table, so each compiled operation
+ * is cached.  A CommandContext is not meant to be used by more than one thread at a time, so commands that are not
+ * in the cache are parsed with contexts borrowed from a small pool.
+ */
+final class CommandCompiler {
+
+    static final String MAX_ENTRIES = "org.jboss.cliresolver.cliCommands.maxEntries";
+    static final String POOL_SIZE = "org.jboss.cliresolver.cliCommands.poolSize";
+
+    private static final BoundedCache<String, ModelNode> operations = new BoundedCache<String, ModelNode>(Settings.getInt(MAX_ENTRIES, 1000));
+
+    private static final int poolSize = Settings.getInt(POOL_SIZE, 4);
+    private static final BlockingQueue<CommandContext> pool = new ArrayBlockingQueue<CommandContext>(poolSize);
+    private static final AtomicInteger created = new AtomicInteger();
+
+    private CommandCompiler() {
+    }
+
+    /**
+     * Build the operation for a CLI command.
+     *
+     * @param command The CLI command.
+     * @return A copy of the operation that the caller is free to modify.
+     */
+    static ModelNode buildRequest(String command) throws CommandFormatException {
+        ModelNode operation = operations.get(command);
+        if (operation == null) {
+            operation = parse(command);
+            operation.protect();
+            operations.put(command, operation);
+        }
+
+        return operation.clone();
+    }
+
+    /**
+     * Create the first CommandContext ahead of time.  Creating one is slow.
+     */
+    static void warmUp() {
+        pool.offer(borrow());
+    }
+
+    private static ModelNode parse(String command) throws CommandFormatException {
+        CommandContext cliContext = borrow();
+        try {
+            return cliContext.buildRequest(command);
+        } finally {
+            pool.offer(cliContext);
+        }
+    }
+
+    private static CommandContext borrow() {
+        CommandContext cliContext = pool.poll();
+        if (cliContext != null) return cliContext;
+
+        if (created.incrementAndGet() <= poolSize) {
+            try {
+                return CommandContextFactory.getInstance().newCommandContext();
+            } catch (CliInitializationException e) {
+                created.decrementAndGet();
+                throw new IllegalStateException(e);
+            }
+        }
+        created.decrementAndGet();
+
+        // every context is in use.  Wait for one to come back.
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+
+/**
+ * Reads every resource a view will need in one composite operation before the view is rendered.
+ *
+ * Each render of a view records the attributes it read at each address.  The next time the same view is rendered,
+ * those resources are read up front in a single composite, so the page costs roughly one round trip no matter how
+ * many addresses it uses.  Turn this on with the org.jboss.cliresolver.compositeReads system property.
+ *
+ * The resolver looks in the {@link ModelSnapshot} and the {@link ValueCache} before it looks at what was read for the
+ * request, so a resource whose attributes are all still cached there is left out of the composite.  When every
+ * attribute of the view is cached, no composite is sent at all.
+ */
+public class CompositeReadPhaseListener implements PhaseListener {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ENABLED = "org.jboss.cliresolver.compositeReads";
+    public static final String MAX_VIEWS = "org.jboss.cliresolver.compositeReads.maxViews";
+    public static final String MAX_ADDRESSES = "org.jboss.cliresolver.compositeReads.maxAddresses";
+
+    private static final Logger log = Logger.getLogger(CompositeReadPhaseListener.class.getName());
+
+    // view id -> attributes read at each address the last time the view was rendered
+    private static final BoundedCache<String, Map<AddressPath, Set<String>>> viewAttributes =
+            new BoundedCache<String, Map<AddressPath, Set<String>>>(Settings.getInt(MAX_VIEWS, 500));
+
+    private final boolean enabled = Settings.getBoolean(ENABLED, false);
+    private final int maxAddresses = Settings.getInt(MAX_ADDRESSES, 256);
+
+    @Override
+    public PhaseId getPhaseId() {
+        return PhaseId.RENDER_RESPONSE;
+    }
+
+    @Override
+    public void beforePhase(PhaseEvent event) {
+        if (!enabled) return;
+
+        String viewId = viewId(event.getFacesContext());
+        if (viewId == null) return;
+
+        Map<AddressPath, Set<String>> attributes = viewAttributes.get(viewId);
+        RequestCache requestCache = RequestCache.current();
+        if ((attributes == null) || (requestCache == null)) return;
+
+        List<AddressPath> addresses = new ArrayList<AddressPath>();
+        for (Map.Entry<AddressPath, Set<String>> entry : attributes.entrySet()) {
+            if (!allCached(entry.getKey(), entry.getValue())) addresses.add(entry.getKey());
+        }
+        if (addresses.isEmpty()) return;
+
+        try {
+            List<AddressPath> failed = requestCache.prefetch(addresses);
+            if (!failed.isEmpty()) {
+                // resources may have been removed.  Don't try them again until the view reads them itself.
+                Map<AddressPath, Set<String>> remaining = new LinkedHashMap<AddressPath, Set<String>>(attributes);
+                remaining.keySet().removeAll(failed);
+                viewAttributes.put(viewId, remaining);
+            }
+        } catch (IOException e) {
+            // not fatal.  The resources will be read one at a time.
+            log.log(Level.FINE, "Composite read failed for view " + viewId, e);
+        }
+    }
+
+    @Override
+    public void afterPhase(PhaseEvent event) {
+        if (!enabled) return;
+
+        String viewId = viewId(event.getFacesContext());
+        RequestCache requestCache = RequestCache.current();
+        if ((viewId == null) || (requestCache == null)) return;
+
+        Map<AddressPath, Set<String>> used = requestCache.usedAttributes();
+        if (used.isEmpty() || (used.size() > maxAddresses)) {
+            viewAttributes.remove(viewId);
+            return;
+        }
+
+        viewAttributes.put(viewId, new LinkedHashMap<AddressPath, Set<String>>(used));
+    }
+
+    // whether the resolver would find every attribute without looking at the request's resources
+    private boolean allCached(AddressPath address, Set<String> attributes) {
+        if (attributes.isEmpty()) return false;
+        for (String attribute : attributes) {
+            if ((ModelSnapshot.getInstance().get(address, attribute) == null)
+                    && !ValueCache.getInstance().isCached(address, attribute)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String viewId(FacesContext fctx) {
+        if (fctx.getViewRoot() == null) return null;
+        return fctx.getViewRoot().getViewId();
+    }
+}
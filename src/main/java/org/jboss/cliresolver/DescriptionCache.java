@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * Application-wide cache of resource descriptions.  Every resource registered under the same wildcard shares
+ * one description, so entries are keyed by the address template (such as subsystem=logging/logger=*) and the
+ * locale the description was read in.
+ *
+ * Only the keys known to be wildcard registrations are wildcarded in the template.  Any other address element
+ * is kept as is, which at worst costs an extra read-resource-description.  More wildcard keys can be added
+ * with the org.jboss.cliresolver.description.wildcardKeys system property.
+ *
+ * Descriptions are also kept on disk by {@link DescriptionStore}, so they survive a restart.
+ *
+ * @see #invalidateAll()
+ */
+public class DescriptionCache {
+
+    public static final String MAX_ENTRIES = "org.jboss.cliresolver.description.maxEntries";
+    public static final String WILDCARD_KEYS = "org.jboss.cliresolver.description.wildcardKeys";
+
+    private static final Set<String> DEFAULT_WILDCARD_KEYS = new HashSet<String>(Arrays.asList(
+            "async-handler", "console-handler", "custom-handler", "file-handler", "periodic-rotating-file-handler",
+            "size-rotating-file-handler", "logger", "connector", "virtual-server", "data-source", "xa-data-source",
+            "jdbc-driver", "deployment", "subdeployment", "extension", "interface", "path", "system-property",
+            "socket-binding", "outbound-socket-binding", "remote-destination-outbound-socket-binding",
+            "local-destination-outbound-socket-binding", "socket-binding-group", "profile", "host", "server",
+            "server-config", "server-group", "security-realm", "security-domain", "jms-queue", "jms-topic",
+            "connection-factory", "pooled-connection-factory"));
+
+    // operations that can change the descriptions of resources
+    private static final Set<String> RELOAD_OPERATIONS = new HashSet<String>(Arrays.asList(
+            "reload", "restart", "shutdown", "reload-servers", "restart-servers"));
+
+    // global operations that never change the model, so there is no need to ask
+    private static final Set<String> READ_ONLY_OPERATIONS = new HashSet<String>(Arrays.asList(
+            "read-resource", "read-attribute", "read-resource-description", "read-children-names",
+            "read-children-types", "read-children-resources", "read-operation-names", "read-operation-description"));
+
+    private static final DescriptionCache instance = new DescriptionCache();
+
+    private final BoundedCache<Key, ModelNode> descriptions = new BoundedCache<Key, ModelNode>(Settings.getInt(MAX_ENTRIES, 500));
+
+    // descriptions kept on disk across restarts
+    private final DescriptionStore store = DescriptionStore.create();
+
+    // converters compiled from attribute descriptions.  Types don't depend on the locale.
+    private final BoundedCache<AttributeKey, ValueConverter> converters =
+            new BoundedCache<AttributeKey, ValueConverter>(Settings.getInt(MAX_ENTRIES, 500) * 10);
+
+    // whether each operation is read-only, by template and operation name
+    private final BoundedCache<AttributeKey, Boolean> readOnlyOperations =
+            new BoundedCache<AttributeKey, Boolean>(Settings.getInt(MAX_ENTRIES, 500));
+    private final Set<String> wildcardKeys = new HashSet<String>(DEFAULT_WILDCARD_KEYS);
+
+    private DescriptionCache() {
+        String extraKeys = Settings.get(WILDCARD_KEYS);
+        if (extraKeys == null) return;
+
+        for (String key : extraKeys.split(",")) {
+            if (key.trim().length() > 0) wildcardKeys.add(key.trim());
+        }
+    }
+
+    public static DescriptionCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the description of the resource at an address.  The returned node is shared and protected against
+     * modification, so use {@link #lookup(ModelNode, String...)} to read it.
+     *
+     * @param address The address of the resource.
+     * @return The description, or an undefined node if it could not be read.
+     */
+    ModelNode getDescription(AddressPath address) throws IOException {
+        String locale = RequestCache.currentLocale();
+        Key key = new Key(templateOf(address), locale);
+        ModelNode description = descriptions.get(key);
+        if (description != null) return description;
+
+        description = store.get(key.template, locale);
+        if (description != null) {
+            description.protect();
+            descriptions.put(key, description);
+            return description;
+        }
+
+        int storeGeneration = store.generation();
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(address.toModelNode());
+        operation.get("operation").set("read-resource-description");
+        if (locale != null) operation.get("locale").set(locale);
+
+        ModelNode result = CliResolver.dmrClient().execute(operation);
+        if (CliResolver.isOutcomeFailed(result)) return new ModelNode(); // don't cache failures
+
+        description = result.get("result");
+        if (description.getType() == ModelType.LIST) { // wildcard address gives a list of results
+            if (description.asList().isEmpty()) return new ModelNode();
+            description = description.get(0).get("result");
+        }
+
+        description.protect();
+        descriptions.put(key, description);
+        store.put(key.template, locale, description, storeGeneration);
+        return description;
+    }
+
+    /**
+     * Get the description of one attribute of the resource at an address.
+     *
+     * @return The attribute description, or an undefined node if there is no such attribute.
+     */
+    ModelNode getAttributeDescription(AddressPath address, String attribute) throws IOException {
+        return lookup(getDescription(address), "attributes", attribute);
+    }
+
+    /**
+     * Get the converter for one attribute of the resource at an address.  It is compiled from the attribute
+     * description the first time it is asked for.
+     */
+    ValueConverter getConverter(AddressPath address, String attribute) throws IOException {
+        AttributeKey key = new AttributeKey(templateOf(address), attribute);
+        ValueConverter converter = converters.get(key);
+        if (converter != null) return converter;
+
+        ModelNode description = getAttributeDescription(address, attribute);
+        converter = ValueConverter.compile(description);
+        if (description.isDefined()) converters.put(key, converter); // the description may turn up later
+        return converter;
+    }
+
+    /**
+     * Find out whether an operation only reads the model.  Unless it is one of the global read operations, this
+     * asks the server for the operation description the first time.  Servers that don't put read-only in their
+     * operation descriptions are assumed to name their read operations read-*.
+     *
+     * @param operation The operation, which may be a composite.
+     */
+    boolean isReadOnly(ModelNode operation) throws IOException {
+        String name = operation.get("operation").asString();
+        if (name.equals("composite")) {
+            if (!operation.hasDefined("steps")) return false;
+            for (ModelNode step : operation.get("steps").asList()) {
+                if (!isReadOnly(step)) return false;
+            }
+            return true;
+        }
+
+        if (READ_ONLY_OPERATIONS.contains(name)) return true;
+
+        AddressPath address = operation.hasDefined("address") ? AddressPath.of(operation.get("address")) : AddressPath.ROOT;
+        AttributeKey key = new AttributeKey(templateOf(address), name);
+        Boolean readOnly = readOnlyOperations.get(key);
+        if (readOnly != null) return readOnly;
+
+        ModelNode describe = new ModelNode();
+        describe.get("address").set(address.toModelNode());
+        describe.get("operation").set("read-operation-description");
+        describe.get("name").set(name);
+
+        ModelNode result = CliResolver.dmrClient().execute(describe);
+        if (CliResolver.isOutcomeFailed(result)) return name.startsWith("read-"); // don't cache failures
+
+        ModelNode description = result.get("result");
+        if (description.getType() == ModelType.LIST) { // wildcard address gives a list of results
+            description = description.asList().isEmpty() ? new ModelNode() : description.get(0).get("result");
+        }
+
+        readOnly = description.hasDefined("read-only") ? description.get("read-only").asBoolean() : name.startsWith("read-");
+        readOnlyOperations.put(key, readOnly);
+        return readOnly;
+    }
+
+    /**
+     * Called before a write operation is executed so that anything it invalidates can be dropped.  Call
+     * {@link #operationExecuted(ModelNode)} as well once it is done.
+     */
+    void operationExecuting(ModelNode operation) {
+        if (changesDescriptions(operation)) invalidateAll();
+    }
+
+    /**
+     * Called after a write operation has been executed.  Descriptions read while it was in progress may be from
+     * before the change, so they are dropped again, and only now are the stored descriptions thrown away.
+     */
+    void operationExecuted(ModelNode operation) {
+        if (changesDescriptions(operation)) {
+            invalidateAll();
+            store.clear();
+        }
+    }
+
+    /**
+     * Forget every description held in memory.  Descriptions stored on disk are kept, but the server version is
+     * checked again before they are used.  This happens automatically when the server is reloaded.
+     */
+    public void invalidateAll() {
+        descriptions.clear();
+        converters.clear();
+        readOnlyOperations.clear();
+        store.reset();
+    }
+
+    public long getHitCount() {
+        return descriptions.hits();
+    }
+
+    public long getMissCount() {
+        return descriptions.misses();
+    }
+
+    public int getSize() {
+        return descriptions.size();
+    }
+
+    /**
+     * Turn an address into its template, such as /subsystem=logging/logger=*
+     */
+    AddressPath templateOf(AddressPath address) {
+        return address.template(wildcardKeys);
+    }
+
+    /**
+     * Walk down a node without creating anything along the way.  This is safe to use on protected nodes.
+     *
+     * @return The node at the end of the path, or an undefined node if the path doesn't exist.
+     */
+    static ModelNode lookup(ModelNode node, String... path) {
+        for (String name : path) {
+            if (!node.hasDefined(name)) return new ModelNode();
+            node = node.get(name);
+        }
+        return node;
+    }
+
+    private boolean changesDescriptions(ModelNode operation) {
+        String name = operation.get("operation").asString();
+        if (RELOAD_OPERATIONS.contains(name)) return true;
+
+        if ((name.equals("add") || name.equals("remove")) && operation.hasDefined("address")) {
+            List<Property> address = operation.get("address").asPropertyList();
+            return !address.isEmpty() && address.get(0).getName().equals("extension");
+        }
+
+        if (name.equals("composite") && operation.hasDefined("steps")) {
+            for (ModelNode step : operation.get("steps").asList()) {
+                if (changesDescriptions(step)) return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class Key {
+        private final AddressPath template;
+        private final String locale;
+
+        Key(AddressPath template, String locale) {
+            this.template = template;
+            this.locale = locale;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * template.hashCode()) + ((locale == null) ? 0 : locale.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return template.equals(other.template)
+                    && ((locale == null) ? (other.locale == null) : locale.equals(other.locale));
+        }
+    }
+
+    private static final class AttributeKey {
+        private final AddressPath template;
+        private final String attribute;
+
+        AttributeKey(AddressPath template, String attribute) {
+            this.template = template;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * template.hashCode()) + attribute.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AttributeKey)) return false;
+            AttributeKey other = (AttributeKey) obj;
+            return attribute.equals(other.attribute) && template.equals(other.template);
+        }
+    }
+}
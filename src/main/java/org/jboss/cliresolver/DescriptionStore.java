@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Keeps resource descriptions on disk so that they survive a restart of the server or a redeploy of the
+ * application.  Descriptions only change between server versions, so there is one file per release version of the
+ * server, and a page that has been seen before needs no read-resource-description at all after a restart.
+ *
+ * The file is a list of records, each an address template and locale followed by the description in DMR's binary
+ * form.  Opening the file only reads the keys and remembers where each description starts; a description is read
+ * when it is first asked for.  New descriptions are appended as they are read from the server.
+ *
+ * The files go in the directory named by the org.jboss.cliresolver.description.store setting, or in
+ * cli-resolver under the server's data directory.  Set it to none to keep descriptions in memory only.
+ */
+final class DescriptionStore {
+
+    static final String DIRECTORY = "org.jboss.cliresolver.description.store";
+
+    private static final Logger log = Logger.getLogger(DescriptionStore.class.getName());
+
+    private static final byte[] MAGIC = {'C', 'L', 'I', 'R', 'D', 'S', 'C', '1'};
+
+    private final File directory;
+
+    // guarded by this.  Opened the first time a description is asked for.
+    private boolean opened;
+    private int resets;
+    private File path;
+    private RandomAccessFile file;
+    private final Map<String, Long> offsets = new HashMap<String, Long>();
+
+    private DescriptionStore(File directory) {
+        this.directory = directory;
+    }
+
+    static DescriptionStore create() {
+        String directory = Settings.get(DIRECTORY);
+        if (directory == null) {
+            String dataDir = System.getProperty("jboss.server.data.dir");
+            if (dataDir != null) directory = dataDir + File.separator + "cli-resolver";
+        }
+        if ((directory == null) || directory.equals("none")) return new DescriptionStore(null);
+        return new DescriptionStore(new File(directory));
+    }
+
+    /**
+     * @return The stored description, or <code>null</code> if there isn't one.
+     */
+    ModelNode get(AddressPath template, String locale) {
+        if (!open()) return null;
+        return read(keyOf(template, locale));
+    }
+
+    private synchronized ModelNode read(String key) {
+        if (file == null) return null; // reset since it was opened
+
+        Long offset = offsets.get(key);
+        if (offset == null) return null;
+
+        try {
+            file.seek(offset);
+            ModelNode description = new ModelNode();
+            description.readExternal(file);
+            return description;
+        } catch (IOException e) {
+            failed("read", e);
+            return null;
+        }
+    }
+
+    /**
+     * The current generation.  Pass it to {@link #put(AddressPath, String, ModelNode, int)} for a description read
+     * after this call.
+     */
+    synchronized int generation() {
+        return resets;
+    }
+
+    /**
+     * Store a description that was just read from the server.
+     *
+     * @param generation The {@link #generation()} from before the description was read.  If the store has been
+     *                   reset or cleared since, the description may be out of date and is not stored.
+     */
+    void put(AddressPath template, String locale, ModelNode description, int generation) {
+        if (!open()) return;
+        write(keyOf(template, locale), description, generation);
+    }
+
+    private synchronized void write(String key, ModelNode description, int generation) {
+        if ((file == null) || (generation != resets) || offsets.containsKey(key)) return;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(key);
+            int keyLength = out.size();
+
+            ByteArrayOutputStream descriptionBytes = new ByteArrayOutputStream(4096);
+            description.writeExternal(new DataOutputStream(descriptionBytes));
+            out.writeInt(descriptionBytes.size());
+            descriptionBytes.writeTo(out);
+            out.flush();
+
+            long start = file.length();
+            file.seek(start);
+            file.write(bytes.toByteArray());
+            offsets.put(key, start + keyLength + 4);
+        } catch (IOException e) {
+            failed("write", e);
+        }
+    }
+
+    /**
+     * Close the file and find out the server version again the next time.  Called when the client changes.
+     */
+    synchronized void reset() {
+        close();
+        opened = false;
+        resets++;
+    }
+
+    /**
+     * Throw away the stored descriptions of the current version.  Called when descriptions may have changed
+     * without a change of version, such as when an extension is added.
+     */
+    synchronized void clear() {
+        File current = path;
+        reset();
+        if ((current != null) && !current.delete() && current.exists()) {
+            log.warning("Unable to delete " + current);
+        }
+    }
+
+    // The release version is read from the server without holding the lock, so lookups don't wait behind it.  If
+    // it can't be read right now, the next lookup tries again.  Only a file that doesn't work is given up on.
+    private boolean open() {
+        int resetsBefore;
+        synchronized (this) {
+            if (opened) return file != null;
+            if (directory == null) {
+                opened = true;
+                return false;
+            }
+            resetsBefore = resets;
+        }
+
+        String version;
+        try {
+            version = releaseVersion();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to read the release version of the server.  Trying again later.", e);
+            return false;
+        }
+
+        synchronized (this) {
+            if (resets != resetsBefore) return false; // the client changed, so the version may be out of date
+            if (opened) return file != null;
+            opened = true;
+
+            if (version == null) {
+                log.warning("The server has no release version.  Descriptions will only be kept in memory.");
+                return false;
+            }
+            return openFile(version);
+        }
+    }
+
+    private boolean openFile(String version) {
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            path = new File(directory, "descriptions-" + version.replaceAll("[^A-Za-z0-9._-]", "_") + ".dmr");
+            file = new RandomAccessFile(path, "rw");
+            readIndex();
+            return true;
+        } catch (IOException e) {
+            failed("open", e);
+            return false;
+        }
+    }
+
+    // Remember where each description starts.  A record cut short by a crash is dropped.
+    private void readIndex() throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        if ((file.length() < MAGIC.length) || (file.read(magic) != MAGIC.length) || !Arrays.equals(magic, MAGIC)) {
+            file.setLength(0);
+            file.write(MAGIC);
+            return;
+        }
+
+        long length = file.length();
+        long start = file.getFilePointer();
+        try {
+            while (start < length) {
+                String key = file.readUTF();
+                int size = file.readInt();
+                long offset = file.getFilePointer();
+                if ((size < 0) || (offset + size > length)) break;
+
+                offsets.put(key, offset);
+                start = offset + size;
+                file.seek(start);
+            }
+        } catch (EOFException e) {
+            // cut short
+        }
+
+        if (start < length) file.setLength(start);
+    }
+
+    private String releaseVersion() throws IOException {
+        ModelNode operation = new ModelNode();
+        operation.get("address").setEmptyList();
+        operation.get("operation").set("read-attribute");
+        operation.get("name").set("release-version");
+
+        ModelNode result = CliResolver.dmrClient().execute(operation);
+        if (CliResolver.isOutcomeFailed(result) || !result.hasDefined("result")) return null;
+        return result.get("result").asString();
+    }
+
+    private static String keyOf(AddressPath template, String locale) {
+        if (locale == null) return template.toString();
+        return template.toString() + " " + locale;
+    }
+
+    // don't keep trying a file that doesn't work
+    private void failed(String action, IOException e) {
+        log.log(Level.WARNING, "Unable to " + action + " stored descriptions in " + ((path != null) ? path : directory)
+                + ".  Descriptions will only be kept in memory.", e);
+        close();
+    }
+
+    private void close() {
+        offsets.clear();
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+            file = null;
+        }
+    }
+}
@@ -18,6 +18,9 @@
  */
 package org.jboss.cliresolver;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.el.ELException;
 import org.jboss.dmr.ModelNode;
 
@@ -28,18 +31,20 @@ import org.jboss.dmr.ModelNode;
  */
 public class DmrOperationFailedException extends ELException {
 
+    private static final long serialVersionUID = 1L;
+
     private String command;
     private ModelNode operation;
     private ModelNode response;
 
     public DmrOperationFailedException(String command, ModelNode response) {
-        super(response.get("failure-description").asString());
+        super(failureDescription(response));
         this.command = command;
         this.response = response;
     }
 
     public DmrOperationFailedException(ModelNode operation, ModelNode response) {
-        super(response.get("failure-description").asString());
+        super(failureDescription(response));
         this.operation = operation;
         this.response = response;
     }
@@ -55,4 +60,37 @@ public class DmrOperationFailedException extends ELException {
     public ModelNode getResponse() {
         return response;
     }
+
+    /**
+     * For a composite operation, the steps that failed.  Steps that only failed because another step made the whole
+     * composite roll back are left out.
+     *
+     * @return The failed steps in order, each as the step "operation" and its "failure-description".  Empty if the
+     *         operation was not a composite.
+     */
+    public List<ModelNode> getFailedSteps() {
+        if ((operation == null) || !operation.hasDefined("steps") || !response.hasDefined("result")) {
+            return Collections.emptyList();
+        }
+
+        // read with has and require.  get would add the missing keys to the response.
+        ModelNode stepResults = response.require("result");
+        List<ModelNode> failedSteps = new ArrayList<ModelNode>();
+        List<ModelNode> steps = operation.require("steps").asList();
+        for (int i = 0; i < steps.size(); i++) {
+            String step = "step-" + (i + 1);
+            if (!stepResults.has(step) || !stepResults.require(step).hasDefined("failure-description")) continue;
+
+            ModelNode failedStep = new ModelNode();
+            failedStep.get("operation").set(steps.get(i));
+            failedStep.get("failure-description").set(stepResults.require(step).require("failure-description"));
+            failedSteps.add(failedStep);
+        }
+        return failedSteps;
+    }
+
+    private static String failureDescription(ModelNode response) {
+        if (!response.hasDefined("failure-description")) return "Operation failed";
+        return response.require("failure-description").asString();
+    }
 }
@@ -0,0 +1,526 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+import org.jboss.threads.AsyncFutureTask;
+
+/**
+ * A pool of connections to the domain controller that looks like a single client.
+ *
+ * Each call goes to one of the connections, chosen either round-robin or by picking the one with the fewest
+ * operations in flight, so concurrent users get their own channels.  A connection that fails is closed and
+ * reconnected on a later call, waiting a little longer after each failure in a row.  A read that fails because of
+ * a broken connection is tried once more on another connection.  Writes are never retried because they may already
+ * have been applied.  Idle connections are checked in the background, so a restarted domain controller is usually
+ * noticed before a user hits it.
+ *
+ * Settings:
+ * <pre>
+ * org.jboss.cliresolver.domainPool.size=4
+ * org.jboss.cliresolver.domainPool.selection=least-in-flight   (or round-robin)
+ * org.jboss.cliresolver.domainPool.healthCheckInterval=30000   (ms, 0 turns health checks off)
+ * org.jboss.cliresolver.domainPool.initialBackoff=500          (ms)
+ * org.jboss.cliresolver.domainPool.maxBackoff=30000            (ms)
+ * </pre>
+ */
+public class DomainClientPool implements ModelControllerClient {
+
+    public static final String SIZE = "org.jboss.cliresolver.domainPool.size";
+    public static final String SELECTION = "org.jboss.cliresolver.domainPool.selection";
+    public static final String HEALTH_CHECK_INTERVAL = "org.jboss.cliresolver.domainPool.healthCheckInterval";
+    public static final String INITIAL_BACKOFF = "org.jboss.cliresolver.domainPool.initialBackoff";
+    public static final String MAX_BACKOFF = "org.jboss.cliresolver.domainPool.maxBackoff";
+
+    private static final Logger log = Logger.getLogger(DomainClientPool.class.getName());
+
+    /**
+     * Opens one connection.
+     */
+    public interface Connector {
+        ModelControllerClient connect() throws IOException;
+    }
+
+    public enum Selection {
+        ROUND_ROBIN, LEAST_IN_FLIGHT;
+
+        static Selection parse(String name) {
+            if (name.trim().equalsIgnoreCase("round-robin")) return ROUND_ROBIN;
+            return LEAST_IN_FLIGHT;
+        }
+    }
+
+    private final Connector connector;
+    private final Selection selection;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a pool configured from settings.
+     */
+    public DomainClientPool(Connector connector) {
+        this(connector,
+             Settings.getInt(SIZE, 4),
+             Selection.parse(Settings.get(SELECTION, "least-in-flight")),
+             Settings.getLong(HEALTH_CHECK_INTERVAL, 30000),
+             Settings.getLong(INITIAL_BACKOFF, 500),
+             Settings.getLong(MAX_BACKOFF, 30000));
+    }
+
+    public DomainClientPool(Connector connector, int size, Selection selection, long healthCheckInterval,
+                            long initialBackoff, long maxBackoff) {
+        this.connector = connector;
+        this.selection = selection;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = Math.max(initialBackoff, maxBackoff);
+
+        this.slots = new Slot[Math.max(1, size)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+        }
+
+        if (healthCheckInterval > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("CliResolverDomainHealthCheck");
+                    return t;
+                }
+            });
+            healthChecker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkHealth();
+                }
+            }, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Create a pool of connections to the domain controller at the given address.
+     *
+     * @param host The host name or address of the domain controller, or <code>null</code> for the local host.
+     */
+    public static DomainClientPool forDomainController(final String host, final int port) {
+        return new DomainClientPool(new Connector() {
+            @Override
+            public ModelControllerClient connect() throws IOException {
+                return ModelControllerClient.Factory.create(InetAddress.getByName(host), port);
+            }
+        });
+    }
+
+    @Override
+    public ModelNode execute(final ModelNode operation) throws IOException {
+        return execute(operation, new Call() {
+            @Override
+            public ModelNode call(ModelControllerClient client) throws IOException {
+                return client.execute(operation);
+            }
+        });
+    }
+
+    @Override
+    public ModelNode execute(final Operation operation) throws IOException {
+        return execute(operation.getOperation(), new Call() {
+            @Override
+            public ModelNode call(ModelControllerClient client) throws IOException {
+                return client.execute(operation);
+            }
+        });
+    }
+
+    @Override
+    public ModelNode execute(final ModelNode operation, final OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation, new Call() {
+            @Override
+            public ModelNode call(ModelControllerClient client) throws IOException {
+                return client.execute(operation, messageHandler);
+            }
+        });
+    }
+
+    @Override
+    public ModelNode execute(final Operation operation, final OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation.getOperation(), new Call() {
+            @Override
+            public ModelNode call(ModelControllerClient client) throws IOException {
+                return client.execute(operation, messageHandler);
+            }
+        });
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(final ModelNode operation, final OperationMessageHandler messageHandler) {
+        return new PooledFuture(operation, new AsyncCall() {
+            @Override
+            public AsyncFuture<ModelNode> call(ModelControllerClient client) {
+                return client.executeAsync(operation, messageHandler);
+            }
+        }).start();
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(final Operation operation, final OperationMessageHandler messageHandler) {
+        return new PooledFuture(operation.getOperation(), new AsyncCall() {
+            @Override
+            public AsyncFuture<ModelNode> call(ModelControllerClient client) {
+                return client.executeAsync(operation, messageHandler);
+            }
+        }).start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (healthChecker != null) healthChecker.shutdownNow();
+        for (Slot slot : slots) {
+            slot.close();
+        }
+    }
+
+    /**
+     * @return The number of connections the pool may open.
+     */
+    public int getSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return The number of connections that are currently open.
+     */
+    public int getConnectedCount() {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.isConnected()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of operations currently executing on all connections.
+     */
+    public int getInFlight() {
+        int count = 0;
+        for (Slot slot : slots) {
+            count += slot.inFlight.get();
+        }
+        return count;
+    }
+
+    private ModelNode execute(ModelNode operation, Call call) throws IOException {
+        int attempts = isRead(operation) ? 2 : 1;
+        IOException failure = null;
+
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            Slot slot = acquire();
+            ModelControllerClient client = null;
+            try {
+                client = slot.client();
+                ModelNode result = call.call(client);
+                slot.succeeded();
+                return result;
+            } catch (IOException e) {
+                if (client != null) slot.failed(client, e); // failures to connect are handled by client()
+                failure = e;
+            } finally {
+                slot.inFlight.decrementAndGet();
+            }
+        }
+
+        throw failure;
+    }
+
+    private static boolean isRead(ModelNode operation) {
+        return operation.hasDefined("operation") && operation.get("operation").asString().startsWith("read-");
+    }
+
+    // pick a connection and count the call against it.  Connections that are waiting to reconnect are skipped
+    // unless every connection is waiting, in which case the caller gets the error from the one it picks.
+    private Slot acquire() {
+        if (closed) throw new IllegalStateException("The domain client pool is closed");
+
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % slots.length;
+        long now = System.currentTimeMillis();
+
+        Slot chosen = null;
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[(start + i) % slots.length];
+            if (!slot.isAvailable(now)) continue;
+
+            if (selection == Selection.ROUND_ROBIN) {
+                chosen = slot;
+                break;
+            }
+            if ((chosen == null) || (slot.inFlight.get() < chosen.inFlight.get())) {
+                chosen = slot;
+            }
+        }
+
+        if (chosen == null) chosen = slots[start];
+        chosen.inFlight.incrementAndGet();
+        return chosen;
+    }
+
+    private void checkHealth() {
+        ModelNode ping = new ModelNode();
+        ping.get("address").setEmptyList();
+        ping.get("operation").set("read-attribute");
+        ping.get("name").set("launch-type");
+        ping.protect();
+
+        long now = System.currentTimeMillis();
+        for (Slot slot : slots) {
+            if (closed) return;
+            if ((slot.inFlight.get() > 0) || !slot.isAvailable(now)) continue; // busy, or not due to reconnect yet
+
+            ModelControllerClient client = null;
+            try {
+                client = slot.client();
+                client.execute(ping);
+                slot.succeeded();
+            } catch (IOException e) {
+                if (client != null) slot.failed(client, e);
+            } catch (RuntimeException e) {
+                log.log(Level.FINE, "Health check failed", e);
+            }
+        }
+    }
+
+    private long backoff(int failures) {
+        long delay = initialBackoff << Math.min(failures - 1, 16);
+        if ((delay < 0) || (delay > maxBackoff)) return maxBackoff;
+        return delay;
+    }
+
+    private interface Call {
+        ModelNode call(ModelControllerClient client) throws IOException;
+    }
+
+    private interface AsyncCall {
+        AsyncFuture<ModelNode> call(ModelControllerClient client);
+    }
+
+    // runs listeners on the thread that completes the future
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // An operation executed asynchronously, with the same failure handling as execute.  A connection that fails is
+    // closed and reconnected later, and so is one whose operation is cancelled, usually because it took too long.
+    // A read that fails because of a broken connection is tried once more on another connection.
+    private final class PooledFuture extends AsyncFutureTask<ModelNode> {
+        private final AsyncCall call;
+        private int attemptsLeft;
+
+        // guarded by this
+        private AsyncFuture<ModelNode> current;
+        private boolean cancelRequested;
+
+        PooledFuture(ModelNode operation, AsyncCall call) {
+            super(DIRECT);
+            this.call = call;
+            this.attemptsLeft = isRead(operation) ? 2 : 1;
+        }
+
+        PooledFuture start() {
+            attemptsLeft--;
+            synchronized (this) {
+                if (cancelRequested) {
+                    setCancelled();
+                    return this;
+                }
+            }
+
+            final Slot slot;
+            try {
+                slot = acquire();
+            } catch (RuntimeException e) {
+                setFailed(e);
+                return this;
+            }
+
+            final ModelControllerClient client;
+            final AsyncFuture<ModelNode> future;
+            try {
+                client = slot.client();
+                future = call.call(client);
+            } catch (IOException e) {
+                slot.inFlight.decrementAndGet();
+                attemptFailed(e); // failures to connect are handled by client()
+                return this;
+            } catch (RuntimeException e) {
+                slot.inFlight.decrementAndGet();
+                setFailed(e);
+                return this;
+            }
+
+            boolean cancel;
+            synchronized (this) {
+                current = future;
+                cancel = cancelRequested;
+            }
+            if (cancel) future.asyncCancel(true);
+
+            future.addListener(new AsyncFuture.AbstractListener<ModelNode, Void>() {
+                @Override
+                public void handleComplete(AsyncFuture<? extends ModelNode> completed, Void attachment) {
+                    slot.inFlight.decrementAndGet();
+                    slot.succeeded();
+                    try {
+                        setResult(completed.getUninterruptibly());
+                    } catch (Exception e) {
+                        setFailed(e);
+                    }
+                }
+
+                @Override
+                public void handleFailed(AsyncFuture<? extends ModelNode> failed, Throwable cause, Void attachment) {
+                    slot.inFlight.decrementAndGet();
+                    if (!(cause instanceof IOException)) {
+                        setFailed(cause);
+                        return;
+                    }
+                    slot.failed(client, (IOException) cause);
+                    attemptFailed((IOException) cause);
+                }
+
+                @Override
+                public void handleCancelled(AsyncFuture<? extends ModelNode> cancelled, Void attachment) {
+                    slot.inFlight.decrementAndGet();
+                    slot.failed(client, new IOException("Operation cancelled"));
+                    setCancelled();
+                }
+            }, null);
+            return this;
+        }
+
+        private void attemptFailed(IOException e) {
+            if (attemptsLeft > 0) {
+                start();
+            } else {
+                setFailed(e);
+            }
+        }
+
+        @Override
+        public void asyncCancel(boolean interruptionDesired) {
+            AsyncFuture<ModelNode> future;
+            synchronized (this) {
+                cancelRequested = true;
+                future = current;
+            }
+            if (future != null) future.asyncCancel(interruptionDesired);
+        }
+    }
+
+    private final class Slot {
+        private final int index;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // guarded by this
+        private ModelControllerClient client;
+        private int failures;
+        private long retryAt;
+
+        Slot(int index) {
+            this.index = index;
+        }
+
+        synchronized ModelControllerClient client() throws IOException {
+            if (client != null) return client;
+            if (closed) throw new IOException("The domain client pool is closed");
+
+            if (System.currentTimeMillis() < retryAt) {
+                throw new IOException("Connection " + index + " to the domain controller failed and is waiting to reconnect");
+            }
+
+            try {
+                client = connector.connect();
+            } catch (IOException e) {
+                failed(null, e);
+                throw e;
+            }
+            return client;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return (client != null) || (now >= retryAt);
+        }
+
+        synchronized boolean isConnected() {
+            return client != null;
+        }
+
+        synchronized void succeeded() {
+            failures = 0;
+        }
+
+        // broken is the client that failed, or null if connecting failed
+        synchronized void failed(ModelControllerClient broken, IOException cause) {
+            if ((broken != null) && (broken != client)) return; // someone else already replaced it
+
+            closeQuietly();
+            failures++;
+            long delay = backoff(failures);
+            retryAt = System.currentTimeMillis() + delay;
+            log.log(Level.FINE, "Connection " + index + " to the domain controller failed.  Reconnecting in " + delay + "ms", cause);
+        }
+
+        synchronized void close() {
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            if (client == null) return;
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Unable to close connection " + index, e);
+            }
+            client = null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A property from an EL expression, parsed once.  The same property string shows up on every evaluation of every
+ * expression that uses it, so each distinct string is parsed the first time it is seen and the immutable result
+ * is shared from then on.
+ *
+ * A property is either one of the special tokens such as _CLI_, an address segment such as
+ * subsystem_eq_logging, or the name of an attribute.
+ */
+final class ElToken {
+
+    enum Kind {
+        SPECIAL, ROOT, ADDRESS, ATTRIBUTE
+    }
+
+    static final String MAX_TOKENS = "org.jboss.cliresolver.maxElTokens";
+
+    private static final Set<String> SPECIAL_TOKENS = new HashSet<String>(Arrays.asList(
+            CliResolver.IS_DOMAIN, CliResolver.CLI, CliResolver.AS_PROP_LIST, CliResolver.METRICS,
+            CliResolver.DATA_MODEL, CliResolver.AGGREGATE, CliResolver.SNAPSHOT_AGE, CliResolver.STALE));
+
+    private static final ConcurrentMap<String, ElToken> tokens = new ConcurrentHashMap<String, ElToken>(256);
+    private static final int maxTokens = Settings.getInt(MAX_TOKENS, 10000);
+
+    private final String raw;
+    private final String name;
+    private final Kind kind;
+    private final String key;
+    private final String value;
+
+    private ElToken(String raw, String name, Kind kind, String key, String value) {
+        this.raw = raw;
+        this.name = name;
+        this.kind = kind;
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Get the token for a property.
+     *
+     * @param property The property as passed to the resolver.
+     * @return The parsed token.  Tokens are shared, so the same property always gives the same token unless the
+     *         table is full.
+     */
+    static ElToken of(Object property) {
+        String raw = property.toString();
+        ElToken token = tokens.get(raw);
+        if (token != null) return token;
+
+        token = parse(raw);
+        if (tokens.size() >= maxTokens) return token; // don't let odd properties fill up memory
+
+        ElToken existing = tokens.putIfAbsent(raw, token);
+        if (existing != null) return existing;
+        return token;
+    }
+
+    /**
+     * Parse a property without looking in or adding to the token table.
+     */
+    static ElToken parse(String raw) {
+        String name = replaceCharsNotAllowedInEL(raw.trim()).intern();
+
+        if (SPECIAL_TOKENS.contains(name)) {
+            return new ElToken(raw, name, Kind.SPECIAL, null, null);
+        }
+
+        if (name.equals(CliResolver.ROOT)) {
+            return new ElToken(raw, name, Kind.ROOT, null, null);
+        }
+
+        int eq = name.indexOf("_eq_");
+        if (eq >= 0) {
+            String key = name.substring(0, eq).intern();
+            String value = name.substring(eq + 4).intern();
+            return new ElToken(raw, name, Kind.ADDRESS, key, value);
+        }
+
+        return new ElToken(raw, name, Kind.ATTRIBUTE, null, null);
+    }
+
+    static String replaceCharsNotAllowedInEL(String str) {
+        str = str.replace("_dash_", "-");
+        str = str.replace("_dot_", ".");
+        str = str.replace("_astk_", "*");
+        return str;
+    }
+
+    /**
+     * The property exactly as it appeared in the expression.
+     */
+    String raw() {
+        return raw;
+    }
+
+    /**
+     * The property with _dash_, _dot_ and _astk_ replaced.
+     */
+    String name() {
+        return name;
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    boolean isAddress() {
+        return (kind == Kind.ADDRESS) || (kind == Kind.ROOT);
+    }
+
+    /**
+     * For an address segment, the part before _eq_.
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * For an address segment, the part after _eq_.
+     */
+    String value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return raw;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.Property;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Wraps a client so that only a limited number of operations are in progress on each target at once.  When many
+ * users load a page together, the extra operations wait their turn instead of all landing on the controller,
+ * which runs inside the server it manages.
+ *
+ * The target of an operation is the host it is addressed to, such as host=master, or the controller itself for
+ * anything else.  Writes, and anything executed by a {@link NativeExecutor} action, go ahead of waiting reads and
+ * can always use the last slot, so a button still works while pages are loading.  Reads only wait in a bounded
+ * queue.  A read that finds the queue full, or any operation that waits too long, fails with a
+ * {@link ManagementOverloadedException} without being sent.
+ * <pre>
+ * org.jboss.cliresolver.governor=true
+ * org.jboss.cliresolver.governor.maxInFlight=8      (per target)
+ * org.jboss.cliresolver.governor.maxQueued=32       (reads waiting per target)
+ * org.jboss.cliresolver.governor.queueTimeout=2000  (ms)
+ * </pre>
+ */
+final class GovernedClient implements ModelControllerClient {
+
+    static final String ENABLED = "org.jboss.cliresolver.governor";
+    static final String MAX_IN_FLIGHT = "org.jboss.cliresolver.governor.maxInFlight";
+    static final String MAX_QUEUED = "org.jboss.cliresolver.governor.maxQueued";
+    static final String QUEUE_TIMEOUT = "org.jboss.cliresolver.governor.queueTimeout";
+
+    // the target of operations that are not addressed to a host
+    private static final String CONTROLLER = "";
+
+    // set while an action runs, so that its reads get priority too
+    private static final ThreadLocal<Boolean> priority = new ThreadLocal<Boolean>();
+
+    private final ModelControllerClient delegate;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long queueTimeoutNanos;
+    private final ConcurrentMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+
+    GovernedClient(ModelControllerClient delegate, int maxInFlight, int maxQueued, long queueTimeoutMillis) {
+        this.delegate = delegate;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    }
+
+    /**
+     * @return The client wrapped in a governor, or the client itself if the governor is turned off.
+     */
+    static ModelControllerClient wrap(ModelControllerClient client) {
+        if (!Settings.getBoolean(ENABLED, false)) return client;
+        return new GovernedClient(client,
+                Settings.getInt(MAX_IN_FLIGHT, 8),
+                Settings.getInt(MAX_QUEUED, 32),
+                Settings.getLong(QUEUE_TIMEOUT, 2000));
+    }
+
+    /**
+     * Give every operation executed by this thread priority, or stop doing so.
+     *
+     * @return Whether the thread had priority before, to be passed back when done.
+     */
+    static boolean setPriority(boolean hasPriority) {
+        boolean previous = priority.get() != null;
+        if (hasPriority) {
+            priority.set(Boolean.TRUE);
+        } else {
+            priority.remove();
+        }
+        return previous;
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        Target target = admit(operation);
+        try {
+            return delegate.execute(operation);
+        } finally {
+            target.release();
+        }
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        Target target = admit(operation.getOperation());
+        try {
+            return delegate.execute(operation);
+        } finally {
+            target.release();
+        }
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+        Target target = admit(operation);
+        try {
+            return delegate.execute(operation, messageHandler);
+        } finally {
+            target.release();
+        }
+    }
+
+    @Override
+    public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+        Target target = admit(operation.getOperation());
+        try {
+            return delegate.execute(operation, messageHandler);
+        } finally {
+            target.release();
+        }
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        Target target = admitAsync(operation);
+        try {
+            AsyncFuture<ModelNode> future = delegate.executeAsync(operation, messageHandler);
+            future.addListener(new Release(), target);
+            return future;
+        } catch (RuntimeException e) {
+            target.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        Target target = admitAsync(operation.getOperation());
+        try {
+            AsyncFuture<ModelNode> future = delegate.executeAsync(operation, messageHandler);
+            future.addListener(new Release(), target);
+            return future;
+        } catch (RuntimeException e) {
+            target.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private Target admit(ModelNode operation) throws IOException {
+        String name = targetOf(operation);
+        Target target = targets.get(name);
+        if (target == null) {
+            target = new Target(name);
+            Target existing = targets.putIfAbsent(name, target);
+            if (existing != null) target = existing;
+        }
+
+        target.acquire((priority.get() != null) || !isRead(operation));
+        return target;
+    }
+
+    private Target admitAsync(ModelNode operation) {
+        try {
+            return admit(operation);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String targetOf(ModelNode operation) {
+        if (operation.get("operation").asString().equals("composite")) {
+            if (!operation.hasDefined("steps")) return CONTROLLER;
+
+            // a composite that stays on one host goes to that host
+            String target = null;
+            for (ModelNode step : operation.get("steps").asList()) {
+                String stepTarget = targetOf(step);
+                if ((target != null) && !target.equals(stepTarget)) return CONTROLLER;
+                target = stepTarget;
+            }
+            return (target == null) ? CONTROLLER : target;
+        }
+
+        if (!operation.hasDefined("address")) return CONTROLLER;
+        List<Property> address = operation.get("address").asPropertyList();
+        if (address.isEmpty() || !address.get(0).getName().equals("host")) return CONTROLLER;
+        return "host=" + address.get(0).getValue().asString();
+    }
+
+    static boolean isRead(ModelNode operation) {
+        String name = operation.get("operation").asString();
+        if (!name.equals("composite")) return name.startsWith("read-");
+
+        if (!operation.hasDefined("steps")) return false;
+        for (ModelNode step : operation.get("steps").asList()) {
+            if (!isRead(step)) return false;
+        }
+        return true;
+    }
+
+    private final class Target {
+        private final String name;
+
+        // guarded by this
+        private int inFlight;
+        private int waitingReads;
+        private int waitingPriority;
+
+        Target(String name) {
+            this.name = name;
+        }
+
+        synchronized void acquire(boolean hasPriority) throws IOException {
+            if (hasPriority) {
+                acquirePriority();
+            } else {
+                acquireRead();
+            }
+            inFlight++;
+        }
+
+        private void acquirePriority() throws IOException {
+            if (inFlight < maxInFlight) return;
+
+            long deadline = System.nanoTime() + queueTimeoutNanos;
+            waitingPriority++;
+            try {
+                while (inFlight >= maxInFlight) {
+                    await(deadline);
+                }
+            } finally {
+                waitingPriority--;
+            }
+        }
+
+        private void acquireRead() throws IOException {
+            if (canRead()) return;
+            if (waitingReads >= maxQueued) {
+                throw overloaded("all " + maxInFlight + " slots are busy and " + waitingReads + " reads are already waiting");
+            }
+
+            long deadline = System.nanoTime() + queueTimeoutNanos;
+            waitingReads++;
+            try {
+                while (!canRead()) {
+                    await(deadline);
+                }
+            } finally {
+                waitingReads--;
+            }
+        }
+
+        // reads leave the last slot free and let operations with priority go first
+        private boolean canRead() {
+            return (waitingPriority == 0) && (inFlight < Math.max(1, maxInFlight - 1));
+        }
+
+        private void await(long deadline) throws IOException {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw overloaded("no slot came free within " + TimeUnit.NANOSECONDS.toMillis(queueTimeoutNanos) + "ms");
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to execute a management operation");
+            }
+        }
+
+        synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        private ManagementOverloadedException overloaded(String reason) {
+            String where = (name.length() == 0) ? "the controller" : name;
+            return new ManagementOverloadedException(name, "Too many management operations in progress on " + where + ": " + reason);
+        }
+    }
+
+    private static class Release extends AsyncFuture.AbstractListener<ModelNode, Target> {
+        @Override
+        public void handleComplete(AsyncFuture<? extends ModelNode> future, Target target) {
+            target.release();
+        }
+
+        @Override
+        public void handleFailed(AsyncFuture<? extends ModelNode> future, Throwable cause, Target target) {
+            target.release();
+        }
+
+        @Override
+        public void handleCancelled(AsyncFuture<? extends ModelNode> future, Target target) {
+            target.release();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Wraps a client so that a controller that stops answering can't hold request threads forever.
+ *
+ * Each operation is executed asynchronously and waited for until its deadline.  If no answer comes in time, the
+ * operation is cancelled and the caller gets a {@link ManagementUnavailableException}.  A write that times out may
+ * still be applied.  Deadlines can be set for each operation name, such as read-attribute, with a list of
+ * <code>name:ms</code> pairs.
+ *
+ * Each target, the host an operation is addressed to or the controller itself, also has a circuit breaker.  After
+ * a number of timeouts or broken connections in a row, operations for that target fail at once for a while.  Then
+ * one operation is let through to see whether the target is back.
+ * <pre>
+ * org.jboss.cliresolver.deadline=10000                                 (ms, 0 means no deadline)
+ * org.jboss.cliresolver.deadline.overrides=read-attribute:2000;composite:20000
+ * org.jboss.cliresolver.breaker.threshold=5                            (failures in a row, 0 turns it off)
+ * org.jboss.cliresolver.breaker.openTime=10000                         (ms)
+ * </pre>
+ * Nothing is wrapped unless a deadline or a breaker threshold is set.
+ */
+public final class GuardedClient implements ModelControllerClient {
+
+    public static final String DEADLINE = "org.jboss.cliresolver.deadline";
+    public static final String DEADLINE_OVERRIDES = "org.jboss.cliresolver.deadline.overrides";
+    public static final String BREAKER_THRESHOLD = "org.jboss.cliresolver.breaker.threshold";
+    public static final String BREAKER_OPEN_TIME = "org.jboss.cliresolver.breaker.openTime";
+
+    private static final Logger log = Logger.getLogger(GuardedClient.class.getName());
+
+    private final ModelControllerClient delegate;
+    private final long defaultDeadline;
+    private final Map<String, Long> deadlines;
+    private final int threshold;
+    private final long openNanos;
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<String, Breaker>();
+
+    /**
+     * @param defaultDeadline Deadline in ms for operations without their own.  Zero means no deadline.
+     * @param deadlines Deadlines in ms by operation name.
+     * @param threshold Failures in a row that open the circuit breaker of a target.  Zero turns breakers off.
+     * @param openMillis How long an open breaker stays open.
+     */
+    public GuardedClient(ModelControllerClient delegate, long defaultDeadline, Map<String, Long> deadlines, int threshold,
+                         long openMillis) {
+        this.delegate = delegate;
+        this.defaultDeadline = defaultDeadline;
+        this.deadlines = deadlines;
+        this.threshold = threshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return The client wrapped with deadlines and circuit breakers, or the client itself if neither is set.
+     */
+    static ModelControllerClient wrap(ModelControllerClient client) {
+        long defaultDeadline = Settings.getLong(DEADLINE, 0);
+        Map<String, Long> deadlines = parseOverrides(Settings.get(DEADLINE_OVERRIDES));
+        int threshold = Settings.getInt(BREAKER_THRESHOLD, 0);
+        if ((defaultDeadline <= 0) && deadlines.isEmpty() && (threshold <= 0)) return client;
+
+        return new GuardedClient(client, defaultDeadline, deadlines, threshold, Settings.getLong(BREAKER_OPEN_TIME, 10000));
+    }
+
+    static Map<String, Long> parseOverrides(String overrides) {
+        Map<String, Long> deadlines = new ConcurrentHashMap<String, Long>();
+        if (overrides == null) return deadlines;
+
+        for (String override : overrides.split(";")) {
+            int separator = override.lastIndexOf(':');
+            if (separator < 0) continue;
+            try {
+                deadlines.put(override.substring(0, separator).trim(), Long.parseLong(override.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                log.warning("Ignoring invalid deadline " + override + " in " + DEADLINE_OVERRIDES);
+            }
+        }
+        return deadlines;
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        return execute(operation, (OperationMessageHandler) null);
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        return execute(operation, null);
+    }
+
+    @Override
+    public ModelNode execute(final ModelNode operation, final OperationMessageHandler messageHandler) throws IOException {
+        return guard(operation, new Call() {
+            @Override
+            public ModelNode call() throws IOException {
+                return delegate.execute(operation, messageHandler);
+            }
+
+            @Override
+            public AsyncFuture<ModelNode> callAsync() {
+                return delegate.executeAsync(operation, messageHandler);
+            }
+        });
+    }
+
+    @Override
+    public ModelNode execute(final Operation operation, final OperationMessageHandler messageHandler) throws IOException {
+        return guard(operation.getOperation(), new Call() {
+            @Override
+            public ModelNode call() throws IOException {
+                return delegate.execute(operation, messageHandler);
+            }
+
+            @Override
+            public AsyncFuture<ModelNode> callAsync() {
+                return delegate.executeAsync(operation, messageHandler);
+            }
+        });
+    }
+
+    // the caller waits for these itself, so only the circuit breaker applies
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        checkBreaker(operation);
+        return delegate.executeAsync(operation, messageHandler);
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        checkBreaker(operation.getOperation());
+        return delegate.executeAsync(operation, messageHandler);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private ModelNode guard(ModelNode operation, Call call) throws IOException {
+        Breaker breaker = breakerFor(operation);
+        breaker.before();
+
+        ModelNode result;
+        try {
+            result = executeWithDeadline(operation, call, breaker.target);
+        } catch (InterruptedIOException e) {
+            // the caller gave up.  That says nothing about the target.
+            breaker.abandoned();
+            throw e;
+        } catch (ManagementOverloadedException e) {
+            // turned away before it was sent
+            breaker.abandoned();
+            throw e;
+        } catch (IOException e) {
+            // timed out or the connection broke
+            breaker.after(false);
+            throw e;
+        } catch (RuntimeException e) {
+            // a bad operation or a failure the target reported
+            breaker.after(true);
+            throw e;
+        } catch (Error e) {
+            breaker.abandoned();
+            throw e;
+        }
+        breaker.after(true);
+        return result;
+    }
+
+    private ModelNode executeWithDeadline(ModelNode operation, Call call, String target) throws IOException {
+        String name = operation.get("operation").asString();
+        long deadline = deadlineOf(name);
+        if (deadline <= 0) return call.call();
+
+        AsyncFuture<ModelNode> future = call.callAsync();
+        try {
+            return future.get(deadline, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.asyncCancel(true);
+            String where = (target.length() == 0) ? "the controller" : target;
+            String message = "No answer from " + where + " to " + name + " within " + deadline + "ms";
+            if (!GovernedClient.isRead(operation)) message += ".  It may still be applied";
+            throw new ManagementUnavailableException(target, message);
+        } catch (InterruptedException e) {
+            future.asyncCancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private long deadlineOf(String name) {
+        Long deadline = deadlines.get(name);
+        return (deadline != null) ? deadline : defaultDeadline;
+    }
+
+    private void checkBreaker(ModelNode operation) {
+        try {
+            breakerFor(operation).check();
+        } catch (ManagementUnavailableException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Breaker breakerFor(ModelNode operation) {
+        String target = GovernedClient.targetOf(operation);
+        Breaker breaker = breakers.get(target);
+        if (breaker == null) {
+            breaker = new Breaker(target);
+            Breaker existing = breakers.putIfAbsent(target, breaker);
+            if (existing != null) breaker = existing;
+        }
+        return breaker;
+    }
+
+    private interface Call {
+        ModelNode call() throws IOException;
+
+        AsyncFuture<ModelNode> callAsync();
+    }
+
+    private final class Breaker {
+        private final String target;
+
+        // guarded by this
+        private int failures;
+        private boolean open;
+        private long openUntil;
+        private boolean probing;
+
+        Breaker(String target) {
+            this.target = target;
+        }
+
+        synchronized void check() throws ManagementUnavailableException {
+            if (open && ((System.nanoTime() - openUntil < 0) || probing)) throw unavailable();
+        }
+
+        // once the open time is over, let one operation through to find out whether the target is back
+        synchronized void before() throws ManagementUnavailableException {
+            check();
+            if (open) probing = true;
+        }
+
+        // a failed outcome is still an answer.  Only timeouts and broken connections count against the target.
+        synchronized void after(boolean answered) {
+            probing = false;
+            if (answered) {
+                failures = 0;
+                open = false;
+                return;
+            }
+
+            failures++;
+            if ((threshold > 0) && (failures >= threshold)) {
+                if (!open) {
+                    log.warning("Not sending operations to " + where() + " for " + TimeUnit.NANOSECONDS.toMillis(openNanos)
+                            + "ms after " + failures + " failures in a row");
+                }
+                open = true;
+                openUntil = System.nanoTime() + openNanos;
+            }
+        }
+
+        // the operation ended without finding out anything about the target, so let the next one probe instead
+        synchronized void abandoned() {
+            probing = false;
+        }
+
+        private ManagementUnavailableException unavailable() {
+            long retryIn = Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntil - System.nanoTime()));
+            return new ManagementUnavailableException(target, "Not sending operations to " + where() + " after "
+                    + failures + " failures in a row.  Trying again in " + retryIn + "ms");
+        }
+
+        private String where() {
+            return (target.length() == 0) ? "the controller" : target;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+
+/**
+ * Wraps a client so that every operation it executes is recorded in {@link ManagementMetrics}.
+ */
+final class InstrumentedClient implements ModelControllerClient {
+
+    private final ModelControllerClient delegate;
+    private final ManagementMetrics metrics;
+
+    InstrumentedClient(ModelControllerClient delegate, ManagementMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The client wrapped for metrics, or the client itself if metrics are turned off.
+     */
+    static ModelControllerClient wrap(ModelControllerClient client) {
+        ManagementMetrics metrics = ManagementMetrics.getInstance();
+        if (!metrics.isEnabled()) return client;
+        return new InstrumentedClient(client, metrics);
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ModelNode result = delegate.execute(operation);
+            failed = CliResolver.isOutcomeFailed(result);
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ModelNode result = delegate.execute(operation);
+            failed = CliResolver.isOutcomeFailed(result);
+            return result;
+        } finally {
+            metrics.record(operation.getOperation(), System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ModelNode result = delegate.execute(operation, messageHandler);
+            failed = CliResolver.isOutcomeFailed(result);
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ModelNode result = delegate.execute(operation, messageHandler);
+            failed = CliResolver.isOutcomeFailed(result);
+            return result;
+        } finally {
+            metrics.record(operation.getOperation(), System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        long start = System.nanoTime();
+        AsyncFuture<ModelNode> future = delegate.executeAsync(operation, messageHandler);
+        future.addListener(new Recorder(operation), Long.valueOf(start));
+        return future;
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        long start = System.nanoTime();
+        AsyncFuture<ModelNode> future = delegate.executeAsync(operation, messageHandler);
+        future.addListener(new Recorder(operation.getOperation()), Long.valueOf(start));
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    // the attachment is the start time
+    private class Recorder extends AsyncFuture.AbstractListener<ModelNode, Long> {
+        private final ModelNode operation;
+
+        Recorder(ModelNode operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void handleComplete(AsyncFuture<? extends ModelNode> future, Long start) {
+            boolean failed = true;
+            try {
+                failed = CliResolver.isOutcomeFailed(future.get());
+            } catch (Exception e) {
+                // counted as failed
+            }
+            metrics.record(operation, System.nanoTime() - start.longValue(), failed);
+        }
+
+        @Override
+        public void handleFailed(AsyncFuture<? extends ModelNode> future, Throwable cause, Long start) {
+            metrics.record(operation, System.nanoTime() - start.longValue(), true);
+        }
+
+        @Override
+        public void handleCancelled(AsyncFuture<? extends ModelNode> future, Long start) {
+            metrics.record(operation, System.nanoTime() - start.longValue(), true);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import org.jboss.as.controller.client.ModelControllerClient;
+
+/**
+ * Supplies the client the resolver talks to, in place of the client for the server the application is deployed
+ * to.  This lets the resolver run against something other than a live server, such as a simulated model in a
+ * load test.
+ *
+ * A provider is installed with {@link ManagementService#setClientProvider(ManagementClientProvider)}, or found
+ * with java.util.ServiceLoader through a META-INF/services/org.jboss.cliresolver.ManagementClientProvider file.
+ * The client is used for everything, even when it reports a launch type of DOMAIN.
+ */
+public interface ManagementClientProvider {
+
+    /**
+     * @return The client.  It is shared by every caller, so it must be safe for concurrent use.
+     */
+    ModelControllerClient getClient();
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ObjectName;
+
+/**
+ * The executor that management clients run their operations on.
+ *
+ * By default this is a pool of five threads with a bounded queue.  When the pool and queue are both full the
+ * thread that submitted the task runs it, which slows callers down instead of letting the queue grow without limit.
+ * Everything can be changed with system properties or in META-INF/cli-resolver.properties:
+ * <pre>
+ * org.jboss.cliresolver.executor.coreSize=5
+ * org.jboss.cliresolver.executor.maxSize=5
+ * org.jboss.cliresolver.executor.queueSize=1000
+ * org.jboss.cliresolver.executor.rejectionPolicy=caller-runs   (or abort)
+ * org.jboss.cliresolver.executor.virtualThreads=false
+ * </pre>
+ * There is no policy that drops tasks.  A caller is always waiting on a management task, and a dropped one would leave
+ * it waiting forever, so discard and discard-oldest are treated as abort.
+ * With virtualThreads=true, and a JDK that has virtual threads, every task gets its own virtual thread and the
+ * pool settings are ignored.
+ *
+ * Queue depth and active threads are published over JMX as org.jboss.cliresolver:type=ManagementExecutor.
+ */
+public class ManagementExecutor implements Executor, ManagementExecutorMBean {
+
+    public static final String CORE_SIZE = "org.jboss.cliresolver.executor.coreSize";
+    public static final String MAX_SIZE = "org.jboss.cliresolver.executor.maxSize";
+    public static final String QUEUE_SIZE = "org.jboss.cliresolver.executor.queueSize";
+    public static final String REJECTION_POLICY = "org.jboss.cliresolver.executor.rejectionPolicy";
+    public static final String VIRTUAL_THREADS = "org.jboss.cliresolver.executor.virtualThreads";
+
+    public static final String OBJECT_NAME = "org.jboss.cliresolver:type=ManagementExecutor";
+
+    private static final Logger log = Logger.getLogger(ManagementExecutor.class.getName());
+
+    private final int coreSize;
+    private final int maxSize;
+    private final int queueSize;
+    private final String rejectionPolicy;
+    private final boolean virtualThreads;
+
+    private final ExecutorService delegate;
+    private final ThreadPoolExecutor pool; // null in virtual thread mode
+
+    // only used in virtual thread mode.  The pool keeps its own counts.
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private ObjectName registeredName;
+
+    public ManagementExecutor() {
+        this.coreSize = Math.max(1, Settings.getInt(CORE_SIZE, 5));
+        this.maxSize = Math.max(coreSize, Settings.getInt(MAX_SIZE, coreSize));
+        this.queueSize = Math.max(1, Settings.getInt(QUEUE_SIZE, 1000));
+        this.rejectionPolicy = rejectionPolicy(Settings.get(REJECTION_POLICY, "caller-runs").trim().toLowerCase());
+
+        ExecutorService virtual = null;
+        if (Settings.getBoolean(VIRTUAL_THREADS, false)) {
+            virtual = newVirtualThreadPerTaskExecutor();
+        }
+        this.virtualThreads = (virtual != null);
+
+        if (virtualThreads) {
+            this.pool = null;
+            this.delegate = virtual;
+        } else {
+            this.pool = new ThreadPoolExecutor(coreSize, maxSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("ManagementServiceModelControllerClientThread-" + count.incrementAndGet());
+                    return t;
+                }
+            }, new CountingRejectionHandler(rejectionHandler(rejectionPolicy)));
+            this.delegate = pool;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            log.warning(VIRTUAL_THREADS + " is set but this JDK has no virtual threads.  Using a thread pool.");
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Unable to create virtual thread executor.  Using a thread pool.", e);
+        }
+        return null;
+    }
+
+    private static String rejectionPolicy(String policy) {
+        if (policy.equals("caller-runs") || policy.equals("abort")) return policy;
+        if (policy.equals("discard") || policy.equals("discard-oldest")) {
+            log.warning(REJECTION_POLICY + " " + policy + " would leave callers waiting forever on dropped tasks.  Using abort.");
+            return "abort";
+        }
+        log.warning("Unknown " + REJECTION_POLICY + " " + policy + ".  Using caller-runs.");
+        return "caller-runs";
+    }
+
+    private static RejectedExecutionHandler rejectionHandler(String policy) {
+        if (policy.equals("abort")) return new ThreadPoolExecutor.AbortPolicy();
+        return new ThreadPoolExecutor.CallerRunsPolicy();
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (!virtualThreads) {
+            pool.execute(command);
+            return;
+        }
+
+        delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+                running.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Publish the gauges over JMX.  Failure to register is logged and otherwise ignored.
+     */
+    public synchronized void register() {
+        if (registeredName == null) registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    /**
+     * Unregister from JMX and stop every thread.
+     */
+    public synchronized void shutdown() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+        delegate.shutdownNow();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        if (virtualThreads) return 0;
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public int getActiveThreads() {
+        if (virtualThreads) return running.get();
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public int getCoreSize() {
+        return coreSize;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueSize;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        if (virtualThreads) return completed.get();
+        return pool.getCompletedTaskCount();
+    }
+
+    @Override
+    public String getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private class CountingRejectionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler policy;
+
+        CountingRejectionHandler(RejectedExecutionHandler policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejected.incrementAndGet();
+            policy.rejectedExecution(r, executor);
+        }
+    }
+}
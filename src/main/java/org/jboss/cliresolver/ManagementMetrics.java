@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Counts and times every management operation the resolver executes.
+ *
+ * Operations are grouped by name and address template, so reading the same attribute from every server in the
+ * domain shows up as one line.  Each group keeps a count, an error count and a histogram of latencies with one
+ * bucket per power of two microseconds, which costs a few atomic increments per call.
+ *
+ * The timings are published over JMX as org.jboss.cliresolver:type=ManagementMetrics and can be shown on a page
+ * with <code>#{_metrics_}</code>, which is a list of {@link OperationMetrics}.  Turn this off with
+ * org.jboss.cliresolver.metrics=false.
+ */
+public class ManagementMetrics implements ManagementMetricsMXBean {
+
+    public static final String ENABLED = "org.jboss.cliresolver.metrics";
+    public static final String MAX_GROUPS = "org.jboss.cliresolver.metrics.maxGroups";
+    public static final String OBJECT_NAME = "org.jboss.cliresolver:type=ManagementMetrics";
+
+    static final int BUCKETS = 32;
+
+    private static final ManagementMetrics instance = new ManagementMetrics();
+
+    private final boolean enabled = Settings.getBoolean(ENABLED, true);
+    private final int maxGroups = Settings.getInt(MAX_GROUPS, 1000);
+    private final ConcurrentMap<Key, Stats> groups = new ConcurrentHashMap<Key, Stats>();
+
+    // everything that doesn't fit once there are maxGroups groups
+    private final Key overflowKey = new Key("*", "*");
+
+    private ObjectName registeredName;
+
+    private ManagementMetrics() {
+    }
+
+    public static ManagementMetrics getInstance() {
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record one call.
+     *
+     * @param operation The operation that was executed.
+     * @param nanos How long it took.
+     * @param failed <code>true</code> if it threw an exception or did not succeed.
+     */
+    void record(ModelNode operation, long nanos, boolean failed) {
+        Key key = keyOf(operation);
+        Stats stats = groups.get(key);
+        if (stats == null) {
+            if (groups.size() >= maxGroups) key = overflowKey;
+            stats = new Stats();
+            Stats existing = groups.putIfAbsent(key, stats);
+            if (existing != null) stats = existing;
+        }
+        stats.record(nanos, failed);
+    }
+
+    private static Key keyOf(ModelNode operation) {
+        String name = operation.hasDefined("operation") ? operation.get("operation").asString() : "";
+
+        AddressPath address = AddressPath.ROOT;
+        if (operation.hasDefined("address")) {
+            try {
+                address = AddressPath.of(operation.get("address"));
+            } catch (IllegalArgumentException e) {
+                // not a list of properties.  Count it against the root.
+            }
+        }
+
+        return new Key(name, DescriptionCache.getInstance().templateOf(address).toString());
+    }
+
+    @Override
+    public List<OperationMetrics> getOperations() {
+        List<OperationMetrics> result = new ArrayList<OperationMetrics>(groups.size());
+        for (Map.Entry<Key, Stats> group : groups.entrySet()) {
+            result.add(group.getValue().snapshot(group.getKey()));
+        }
+
+        Collections.sort(result, new Comparator<OperationMetrics>() {
+            @Override
+            public int compare(OperationMetrics a, OperationMetrics b) {
+                return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public long getTotalCount() {
+        long count = 0;
+        for (Stats stats : groups.values()) {
+            count += stats.count.get();
+        }
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (Stats stats : groups.values()) {
+            count += stats.errors.get();
+        }
+        return count;
+    }
+
+    @Override
+    public double getTotalMillis() {
+        long nanos = 0;
+        for (Stats stats : groups.values()) {
+            nanos += stats.totalNanos.get();
+        }
+        return nanos / 1000000.0;
+    }
+
+    @Override
+    public void reset() {
+        groups.clear();
+    }
+
+    /**
+     * Publish the timings over JMX.
+     */
+    public synchronized void register() {
+        if (registeredName == null) registeredName = Jmx.register(this, OBJECT_NAME);
+    }
+
+    public synchronized void unregister() {
+        Jmx.unregister(registeredName);
+        registeredName = null;
+    }
+
+    private static final class Stats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos, boolean failed) {
+            count.incrementAndGet();
+            if (failed) errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max = maxNanos.get();
+            while ((nanos > max) && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+
+            long micros = nanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        OperationMetrics snapshot(Key key) {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new OperationMetrics(key.operation, key.address, count.get(), errors.get(),
+                                        totalNanos.get() / 1000000.0, maxNanos.get() / 1000000.0, buckets);
+        }
+    }
+
+    private static final class Key {
+        private final String operation;
+        private final String address;
+
+        Key(String operation, String address) {
+            this.operation = operation;
+            this.address = address;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * operation.hashCode()) + address.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return operation.equals(other.operation) && address.equals(other.address);
+        }
+    }
+}
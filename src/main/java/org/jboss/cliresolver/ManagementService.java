@@ -18,9 +18,8 @@
  */
 package org.jboss.cliresolver;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.Iterator;
+import java.util.ServiceLoader;
 import org.jboss.as.controller.ModelController;
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.as.server.Services;
@@ -43,11 +42,54 @@ import org.jboss.msc.value.InjectedValue;
  */
 public class ManagementService implements ServiceActivator {
    private static volatile ModelController controller;
-   private static volatile ExecutorService executor;
+   private static volatile ManagementExecutor executor;
+   private static volatile ModelControllerClient client;
+   private static volatile ManagementClientProvider clientProvider = loadClientProvider();
 
 
+   /**
+    * Get the client for the server this application is deployed to, or the client from the installed
+    * {@link ManagementClientProvider}.  The same client is shared by every caller.
+    *
+    * @throws IllegalStateException if there is no provider and the service has not been started.
+    */
    public static ModelControllerClient getClient() {
-      return controller.createClient(executor);
+      ManagementClientProvider provider = clientProvider;
+      if (provider != null) return provider.getClient();
+
+      ModelControllerClient result = client;
+      if (result == null) throw new IllegalStateException("The management client service is not started");
+      return result;
+   }
+
+   /**
+    * Use a different client than the one for this server.  The resolver forgets everything it has cached.
+    *
+    * @param provider The provider, or <code>null</code> to go back to the client for this server.
+    */
+   public static void setClientProvider(ManagementClientProvider provider) {
+      clientProvider = provider;
+      ClientBootstrap.reset();
+      DescriptionCache.getInstance().invalidateAll();
+      ValueCache.getInstance().invalidateAll();
+      ModelSnapshot.getInstance().shutdown();
+   }
+
+   static boolean hasClientProvider() {
+      return clientProvider != null;
+   }
+
+   private static ManagementClientProvider loadClientProvider() {
+      Iterator<ManagementClientProvider> providers = ServiceLoader.load(ManagementClientProvider.class, ManagementService.class.getClassLoader()).iterator();
+      if (providers.hasNext()) return providers.next();
+      return null;
+   }
+
+   /**
+    * @return The executor management clients run on, or <code>null</code> if the service is not started.
+    */
+   public static ManagementExecutor getExecutor() {
+      return executor;
    }
 
    @Override
@@ -73,23 +115,32 @@ public class ManagementService implements ServiceActivator {
 
       @Override
       public void start(StartContext context) throws StartException {
-         ManagementService.executor = Executors.newFixedThreadPool(5, new ThreadFactory() {
-             @Override
-             public Thread newThread(Runnable r) {
-                 Thread t = new Thread(r);
-                 t.setDaemon(true);
-                 t.setName("ManagementServiceModelControllerClientThread");
-                 return t;
-             }
-         });
+         ManagementExecutor clientExecutor = new ManagementExecutor();
+         clientExecutor.register();
+         ManagementMetrics.getInstance().register();
+         ManagementService.executor = clientExecutor;
          ManagementService.controller = modelControllerValue.getValue();
+         ManagementService.client = controller.createClient(clientExecutor);
+
+         // we are started again whenever the server reloads
+         DescriptionCache.getInstance().invalidateAll();
+         ValueCache.getInstance().invalidateAll();
+
+         ClientBootstrap.warmUp(clientExecutor);
       }
 
       @Override
       public void stop(StopContext context) {
+         ValueCache.getInstance().shutdown();
+         SubscriptionSampler.getInstance().shutdown();
+         WildcardFanOut.shutdown();
+         ModelSnapshot.getInstance().shutdown();
+         ClientBootstrap.reset();
+         ManagementMetrics.getInstance().unregister();
          try {
-            ManagementService.executor.shutdownNow();
+            ManagementService.executor.shutdown();
          } finally {
+            ManagementService.client = null;
             ManagementService.executor = null;
             ManagementService.controller = null;
          }
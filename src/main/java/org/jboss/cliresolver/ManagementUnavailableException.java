@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the management model can't be reached right now: an operation got no answer within its deadline,
+ * or its target has failed so often that operations are not being sent to it for a while.
+ *
+ * @see GuardedClient
+ */
+public class ManagementUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String target;
+
+    public ManagementUnavailableException(String target, String message) {
+        super(message);
+        this.target = target;
+    }
+
+    /**
+     * @return The target that was unavailable, such as host=master, or an empty string for the controller itself.
+     */
+    public String getTarget() {
+        return target;
+    }
+}
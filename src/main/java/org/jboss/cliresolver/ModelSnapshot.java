@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * A copy of parts of the management model, read in the background every few seconds, that attribute reads are
+ * answered from.
+ *
+ * This is for pages such as wallboards that would rather show values a few seconds old than send an operation for
+ * every expression.  Name the subtrees to copy with a list such as
+ * <pre>
+ * -Dorg.jboss.cliresolver.snapshot.subtrees=/subsystem=web;/subsystem=datasources
+ * </pre>
+ * Each subtree is read with one recursive read-resource that includes runtime attributes, and the result is
+ * indexed by address.  A new copy replaces the old one all at once, so a reader never waits and never sees half of
+ * a refresh.  Addresses outside the subtrees, wildcard addresses, and anything written through the resolver since
+ * the last refresh are read from the server as usual.  How old the copy is can be shown with
+ * <code>#{_snapshotAge_}</code>, in milliseconds.
+ */
+final class ModelSnapshot {
+
+    static final String SUBTREES = "org.jboss.cliresolver.snapshot.subtrees";
+    static final String INTERVAL = "org.jboss.cliresolver.snapshot.interval";
+
+    private static final Logger log = Logger.getLogger(ModelSnapshot.class.getName());
+
+    private static final ModelSnapshot instance = new ModelSnapshot();
+
+    private final List<AddressPath> subtrees = new ArrayList<AddressPath>();
+    private final long intervalMillis = Settings.getLong(INTERVAL, 10000);
+
+    private volatile Tree current;
+
+    // only used by the refresher thread.  Descriptions say which keys of a resource are children.
+    private final Map<AddressPath, ModelNode> descriptions = new HashMap<AddressPath, ModelNode>();
+
+    private ScheduledExecutorService refresher;
+
+    // bumped on every write, so that a refresh that started before a write doesn't hide it
+    private final AtomicLong writes = new AtomicLong();
+
+    private ModelSnapshot() {
+        String configured = Settings.get(SUBTREES);
+        if (configured == null) return;
+
+        for (String subtree : configured.split(";")) {
+            if (subtree.trim().length() > 0) subtrees.add(AddressPath.parse(subtree.trim()));
+        }
+    }
+
+    static ModelSnapshot getInstance() {
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return !subtrees.isEmpty();
+    }
+
+    /**
+     * Get an attribute from the copy.  The first call starts the background refresh.
+     *
+     * @return The value, or <code>null</code> if it has to be read from the server.
+     */
+    ModelNode get(AddressPath address, String attribute) {
+        if (!isEnabled()) return null;
+
+        Tree tree = current;
+        if (tree == null) {
+            start();
+            return null;
+        }
+        return tree.get(address, attribute);
+    }
+
+    /**
+     * @return How old the oldest part of the copy is in milliseconds, or <code>null</code> if there is no copy.
+     */
+    Long getAgeMillis() {
+        Tree tree = current;
+        if (tree == null) return null;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tree.oldest());
+    }
+
+    /**
+     * Called before a write operation is executed.  Reads of whatever it may change go to the server until the
+     * next refresh.  Call {@link #operationExecuted(ModelNode)} as well once it is done.
+     */
+    void operationExecuting(ModelNode operation) {
+        if (operation.get("operation").asString().equals("composite") && operation.hasDefined("steps")) {
+            for (ModelNode step : operation.get("steps").asList()) {
+                operationExecuting(step);
+            }
+            return;
+        }
+
+        invalidate(operation.hasDefined("address") ? AddressPath.of(operation.get("address")) : AddressPath.ROOT);
+    }
+
+    /**
+     * Called after a write operation has been executed.  A refresh that ran while the write was in progress may
+     * have copied the old values, so mark them dirty again.
+     */
+    void operationExecuted(ModelNode operation) {
+        operationExecuting(operation);
+    }
+
+    /**
+     * Stop using the copy for an address and everything below it until the next refresh.
+     */
+    void invalidate(AddressPath address) {
+        writes.incrementAndGet();
+        Tree tree = current;
+        if (tree == null) return;
+
+        // a wildcard write affects everything below the wildcard's parent
+        while (address.isWildcard()) {
+            address = address.getParent();
+        }
+        tree.dirty.add(address);
+    }
+
+    /**
+     * Stop refreshing and drop the copy.  Called when the management service stops or the client changes.
+     */
+    synchronized void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        current = null;
+    }
+
+    private synchronized void start() {
+        if (refresher != null) return;
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName("CliResolverModelSnapshot");
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Read every subtree and swap in the new copy.  A subtree that can't be read keeps its old copy.
+    void refresh() {
+        long startWrites = writes.get();
+        Tree previous = current;
+        Map<AddressPath, Map<String, ModelNode>> resources = new HashMap<AddressPath, Map<String, ModelNode>>();
+        Map<AddressPath, Long> takenAt = new HashMap<AddressPath, Long>();
+
+        for (AddressPath subtree : subtrees) {
+            long start = System.nanoTime();
+            try {
+                ModelNode model = read(subtree, "read-resource");
+                ModelNode description = descriptions.get(subtree);
+                if (description == null) {
+                    description = read(subtree, "read-resource-description");
+                    descriptions.put(subtree, description);
+                }
+                index(subtree, model, description, resources);
+                takenAt.put(subtree, start);
+            } catch (Exception e) {
+                log.log(Level.FINE, "Unable to take a snapshot of " + subtree, e);
+                if (previous != null) previous.copySubtree(subtree, resources, takenAt);
+            }
+        }
+
+        if (takenAt.isEmpty()) return;
+        Tree tree = new Tree(resources, takenAt);
+        synchronized (this) {
+            if (refresher == null) return; // shut down while reading
+
+            Tree latest = current;
+            if (writes.get() != startWrites) {
+                // something was written while reading.  Keep going to the server for it until the next refresh.
+                if (latest == null) return;
+                tree.dirty.addAll(latest.dirty);
+            }
+            current = tree;
+        }
+    }
+
+    private ModelNode read(AddressPath address, String operationName) throws IOException {
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(address.toModelNode());
+        operation.get("operation").set(operationName);
+        operation.get("recursive").set(true);
+        if (operationName.equals("read-resource")) operation.get("include-runtime").set(true);
+
+        ModelNode result = CliResolver.dmrClient().execute(operation);
+        if (CliResolver.isOutcomeFailed(result)) throw new DmrOperationFailedException(operation, result);
+
+        ModelNode value = result.get("result");
+        value.protect();
+        return value;
+    }
+
+    // Split a recursive read-resource into the attributes of each resource
+    private void index(AddressPath address, ModelNode resource, ModelNode description,
+                       Map<AddressPath, Map<String, ModelNode>> resources) {
+        ModelNode childTypes = DescriptionCache.lookup(description, "children");
+        Map<String, ModelNode> attributes = new HashMap<String, ModelNode>();
+
+        for (String key : resource.keys()) {
+            ModelNode value = resource.get(key);
+            if (!childTypes.has(key)) {
+                attributes.put(key.intern(), value);
+                continue;
+            }
+            if (!value.isDefined()) continue;
+
+            ModelNode childDescriptions = DescriptionCache.lookup(childTypes, key, "model-description");
+            for (String name : value.keys()) {
+                ModelNode childDescription = childDescriptions.has(name)
+                        ? childDescriptions.get(name) : DescriptionCache.lookup(childDescriptions, "*");
+                index(address.append(key.intern(), name.intern()), value.get(name), childDescription, resources);
+            }
+        }
+
+        resources.put(address, Collections.unmodifiableMap(attributes));
+    }
+
+    /**
+     * One copy of the subtrees.  Never changed once it is made, except to mark addresses that were written.
+     */
+    private static final class Tree {
+        private final Map<AddressPath, Map<String, ModelNode>> resources;
+        private final Map<AddressPath, Long> takenAt;
+        private final Set<AddressPath> dirty = Collections.newSetFromMap(new ConcurrentHashMap<AddressPath, Boolean>());
+
+        Tree(Map<AddressPath, Map<String, ModelNode>> resources, Map<AddressPath, Long> takenAt) {
+            this.resources = resources;
+            this.takenAt = takenAt;
+        }
+
+        ModelNode get(AddressPath address, String attribute) {
+            if (address.isWildcard() || !covers(address) || isDirty(address)) return null;
+
+            Map<String, ModelNode> attributes = resources.get(address);
+            if (attributes == null) return null; // maybe added since the copy was made
+            return attributes.get(attribute);
+        }
+
+        private boolean covers(AddressPath address) {
+            for (AddressPath subtree : takenAt.keySet()) {
+                if (address.startsWith(subtree)) return true;
+            }
+            return false;
+        }
+
+        private boolean isDirty(AddressPath address) {
+            for (AddressPath written : dirty) {
+                if (address.startsWith(written)) return true;
+            }
+            return false;
+        }
+
+        long oldest() {
+            Long oldest = null;
+            for (Long time : takenAt.values()) {
+                if ((oldest == null) || (time - oldest < 0)) oldest = time;
+            }
+            return oldest;
+        }
+
+        void copySubtree(AddressPath subtree, Map<AddressPath, Map<String, ModelNode>> into, Map<AddressPath, Long> intoTakenAt) {
+            Long time = takenAt.get(subtree);
+            if (time == null) return;
+
+            for (Map.Entry<AddressPath, Map<String, ModelNode>> entry : resources.entrySet()) {
+                if (entry.getKey().startsWith(subtree) && !isDirty(entry.getKey())) into.put(entry.getKey(), entry.getValue());
+            }
+            intoTakenAt.put(subtree, time);
+        }
+    }
+}
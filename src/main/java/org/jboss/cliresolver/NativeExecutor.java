@@ -20,10 +20,7 @@
 package org.jboss.cliresolver;
 
 import java.io.IOException;
-import java.util.Locale;
 import javax.el.ELException;
-import javax.faces.context.FacesContext;
-import org.jboss.as.cli.CommandContext;
 import org.jboss.as.cli.CommandFormatException;
 import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
@@ -34,8 +31,6 @@ import org.jboss.dmr.ModelType;
  */
 public class NativeExecutor {
 
-    private static CommandContext cliContext = CliResolver.cliContext();
-
     private String command;
 
 
@@ -44,11 +39,17 @@ public class NativeExecutor {
     }
 
     /**
-     * This gets called for MethodExpressions.
+     * This gets called for MethodExpressions.  The command is an action, so it goes ahead of reads that are
+     * waiting to be executed.
      *
      */
     public void execute() {
-        executeCLIAndHandleResult(command);
+        boolean hadPriority = GovernedClient.setPriority(true);
+        try {
+            executeCLIAndHandleResult(command);
+        } finally {
+            GovernedClient.setPriority(hadPriority);
+        }
     }
 
     /**
@@ -72,7 +73,7 @@ public class NativeExecutor {
             if (!commandResult.isDefined()) return result;
 
             if (commandResult.getType() == ModelType.LIST) {
-                return commandResult.asList();
+                return new AddressedResultList(commandResult.asList());
             } else {
                 return commandResult;
             }
@@ -83,22 +84,67 @@ public class NativeExecutor {
         }
     }
 
+    /**
+     * Execute a CLI command.  Within a Faces request, the result of a read-only command is remembered, so the
+     * same command evaluated again in the same request is only executed once.  Any other command forgets what
+     * was remembered.
+     */
     public static ModelNode executeCLI(String command) throws IOException, CommandFormatException {
-        ModelNode operation = cliContext.buildRequest(command);
-        return executeOperation(operation);
+        ModelNode operation = CommandCompiler.buildRequest(command);
+        boolean readOnly = DescriptionCache.getInstance().isReadOnly(operation);
+
+        RequestCache requestCache = RequestCache.current();
+        if ((requestCache == null) || !readOnly) return executeOperation(operation, readOnly);
+
+        String locale = RequestCache.currentLocale();
+        ModelNode result = requestCache.getCliResult(command, locale);
+        if (result == null) {
+            result = executeOperation(operation, true);
+            requestCache.putCliResult(command, locale, result);
+        }
+        return result;
     }
 
+    /**
+     * Execute an operation.  Unless its description says it is read-only, the caches are invalidated before and
+     * after it runs.
+     */
     public static ModelNode executeOperation(ModelNode operation) throws IOException {
+        return executeOperation(operation, DescriptionCache.getInstance().isReadOnly(operation));
+    }
+
+    private static ModelNode executeOperation(ModelNode operation, boolean readOnly) throws IOException {
         addLocale(operation);
-        return CliResolver.dmrClient().execute(operation);
+        if (!readOnly) invalidateCaches(operation);
+        try {
+            if (WildcardFanOut.isFanOut(operation)) return WildcardFanOut.execute(operation);
+            return CliResolver.dmrClient().execute(operation);
+        } finally {
+            if (!readOnly) {
+                DescriptionCache.getInstance().operationExecuted(operation);
+                ValueCache.getInstance().operationExecuted(operation);
+                ModelSnapshot.getInstance().operationExecuted(operation);
+            }
+        }
+    }
+
+    // Anything other than a read might change what has already been read
+    private static void invalidateCaches(ModelNode operation) {
+        DescriptionCache.getInstance().operationExecuting(operation);
+        ValueCache.getInstance().operationExecuting(operation);
+        ModelSnapshot.getInstance().operationExecuting(operation);
+
+        RequestCache requestCache = RequestCache.current();
+        if (requestCache != null) {
+            requestCache.invalidateAll();
+        }
     }
 
     // TODO: find a way to test this with Arquillian
     private static void addLocale(ModelNode operation) {
-        FacesContext fctx = FacesContext.getCurrentInstance();
-        if (fctx == null) return;
+        String locale = RequestCache.currentLocale();
+        if (locale == null) return;
 
-        Locale locale = fctx.getApplication().getViewHandler().calculateLocale(fctx);
-        operation.get("locale").set(locale.toString());
+        operation.get("locale").set(locale);
     }
 }
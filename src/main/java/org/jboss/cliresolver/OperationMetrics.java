@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+/**
+ * Timings for one kind of management operation, such as read-attribute on /subsystem=web/connector=*.
+ * This is a snapshot.  It does not change after it is taken.
+ */
+public class OperationMetrics {
+
+    private final String operation;
+    private final String address;
+    private final long count;
+    private final long errors;
+    private final double totalMillis;
+    private final double maxMillis;
+    private final long[] histogram;
+
+    OperationMetrics(String operation, String address, long count, long errors, double totalMillis, double maxMillis,
+                     long[] histogram) {
+        this.operation = operation;
+        this.address = address;
+        this.count = count;
+        this.errors = errors;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @return The operation name.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return The address template, with names such as server or deployment replaced by *.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Calls that failed, either with an outcome other than success or with an exception.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMeanMillis() {
+        if (count == 0) return 0;
+        return totalMillis / count;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public double getP50Millis() {
+        return percentile(0.50);
+    }
+
+    public double getP95Millis() {
+        return percentile(0.95);
+    }
+
+    public double getP99Millis() {
+        return percentile(0.99);
+    }
+
+    /**
+     * @return Call counts by latency.  Bucket 0 counts calls under one microsecond, and bucket i counts calls that
+     *         took from 2^(i-1) up to 2^i microseconds.  The last bucket also counts everything slower.
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    // the upper bound of the bucket the percentile falls in, so this slightly overstates the latency
+    private double percentile(double fraction) {
+        long total = 0;
+        for (long bucket : histogram) {
+            total += bucket;
+        }
+        if (total == 0) return 0;
+
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) return Math.min((1L << i) / 1000.0, maxMillis);
+        }
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " " + address + " count=" + count + " errors=" + errors + " mean=" + getMeanMillis()
+                + "ms p95=" + getP95Millis() + "ms max=" + maxMillis + "ms";
+    }
+}
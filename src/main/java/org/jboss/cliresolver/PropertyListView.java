@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * A DMR property list, such as an address, indexed by name, so that <code>#{row.address.subsystem}</code> finds the
+ * property with a hash lookup instead of copying and scanning the list every time.
+ *
+ * The resolver still returns the ModelNode itself to EL and to other resolvers.  It keeps the view on the side, in
+ * the {@link RequestCache} keyed by the identity of the node, and uses it when the node is the base of the next
+ * property.
+ *
+ * The view is taken when it is created.  Later changes to the ModelNode it came from are not seen.
+ */
+final class PropertyListView {
+
+    // stands in for a null value in the converted map
+    private static final Object NULL = new Object();
+
+    private final ModelNode node;
+    private final List<Property> properties;
+    private final Map<String, ModelNode> index;
+    private final Map<String, Object> converted = new ConcurrentHashMap<String, Object>();
+
+    private PropertyListView(ModelNode node, List<Property> properties, Map<String, ModelNode> index) {
+        this.node = node;
+        this.properties = properties;
+        this.index = index;
+    }
+
+    /**
+     * Make a view of a node if it is a property list.
+     *
+     * @return The view, or <code>null</code> if the node is not a non-empty list of properties.
+     */
+    static PropertyListView of(ModelNode node) {
+        if (node.getType() != ModelType.LIST) return null;
+
+        List<ModelNode> elements = node.asList();
+        if (elements.isEmpty()) return null;
+
+        Map<String, ModelNode> index = new HashMap<String, ModelNode>(elements.size() * 2);
+        Property[] properties = new Property[elements.size()];
+        for (int i = 0; i < properties.length; i++) {
+            ModelNode element = elements.get(i);
+            if (element.getType() != ModelType.PROPERTY) return null; // every element must be a property
+
+            Property property = element.asProperty();
+            properties[i] = property;
+            if (!index.containsKey(property.getName())) index.put(property.getName(), property.getValue());
+        }
+
+        return new PropertyListView(node, Collections.unmodifiableList(Arrays.asList(properties)), index);
+    }
+
+    /**
+     * @return The value of the first property with the given name, or <code>null</code> if there is none.
+     */
+    public ModelNode get(String name) {
+        return index.get(name);
+    }
+
+    public boolean has(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * @return The properties in their original order.
+     */
+    public List<Property> asPropertyList() {
+        return properties;
+    }
+
+    /**
+     * @return The property list this view was made from.
+     */
+    public ModelNode getNode() {
+        return node;
+    }
+
+    public int size() {
+        return properties.size();
+    }
+
+    // the value converted to a Java type, converting each property only once
+    Object getConverted(String name, CliResolver resolver) {
+        Object value = converted.get(name);
+        if (value == null) {
+            ModelNode property = index.get(name);
+            value = (property == null) ? null : resolver.convertValueToJavaType(property);
+            if (value instanceof List) value = Collections.unmodifiableList((List<?>) value);
+            converted.put(name, (value == null) ? NULL : value);
+            return value;
+        }
+        return (value == NULL) ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return node.toString();
+    }
+}
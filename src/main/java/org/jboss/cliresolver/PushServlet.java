@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jboss.cliresolver.SubscriptionSampler.Watch;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Pushes changed attribute values to the browser as server-sent events, so a page can stay current without
+ * reloading.  The page names the attributes it shows the same way they are written in EL:
+ * <pre>
+ * var events = new EventSource('cli-resolver/push?watch=subsystem_eq_web.connector_eq_http.bytesSent'
+ *                                             + '&amp;watch=subsystem_eq_web.connector_eq_http.requestCount');
+ * events.addEventListener('change', function(e) {
+ *     var change = JSON.parse(e.data); // {"watch" : "subsystem_eq_web.connector_eq_http.bytesSent", "value" : 1024}
+ * });
+ * </pre>
+ * Each attribute is sampled once per interval for every browser together, by {@link SubscriptionSampler}.  A watch
+ * naming an attribute that cannot be read is rejected with 400 Bad Request.
+ *
+ * Any client that can reach the servlet can read any attribute, so it is off unless the
+ * org.jboss.cliresolver.push setting is true.  Protect the URL the same way as the pages that use it.
+ */
+@WebServlet(urlPatterns = PushServlet.URL_PATTERN, asyncSupported = true)
+public class PushServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String URL_PATTERN = "/cli-resolver/push";
+    public static final String ENABLED = "org.jboss.cliresolver.push";
+
+    private final boolean enabled = Settings.getBoolean(ENABLED, false);
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!enabled) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String[] expressions = request.getParameterValues("watch");
+        if (expressions == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Name at least one attribute with the watch parameter");
+            return;
+        }
+
+        // the same attribute may be written more than one way
+        Map<Watch, List<String>> watches = new LinkedHashMap<Watch, List<String>>();
+        for (String expression : expressions) {
+            Watch watch;
+            try {
+                watch = Watch.parse(expression.trim());
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+
+            List<String> names = watches.get(watch);
+            if (names == null) {
+                names = new ArrayList<String>(1);
+                watches.put(watch, names);
+            }
+            names.add(expression.trim());
+        }
+
+        try {
+            SubscriptionSampler.getInstance().validate(watches.keySet());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        EventStream stream = new EventStream(async, watches);
+        async.addListener(stream);
+        if (!stream.keepAlive()) return;
+
+        try {
+            SubscriptionSampler.getInstance().subscribe(stream, watches.keySet());
+        } catch (IllegalStateException e) {
+            stream.close();
+        }
+    }
+
+    private static final class EventStream implements SubscriptionSampler.Subscriber, AsyncListener {
+        private final AsyncContext async;
+        private final Map<Watch, List<String>> watches;
+        private boolean closed;
+
+        EventStream(AsyncContext async, Map<Watch, List<String>> watches) {
+            this.async = async;
+            this.watches = watches;
+        }
+
+        @Override
+        public synchronized boolean changed(Watch watch, ModelNode value) {
+            List<String> names = watches.get(watch);
+            if (names == null) return !closed;
+
+            StringBuilder events = new StringBuilder();
+            for (String name : names) {
+                ModelNode change = new ModelNode();
+                change.get("watch").set(name);
+                change.get("value").set(value);
+                events.append("event: change\ndata: ").append(change.toJSONString(true)).append("\n\n");
+            }
+            return write(events.toString());
+        }
+
+        @Override
+        public synchronized boolean keepAlive() {
+            return write(":\n\n");
+        }
+
+        private boolean write(String text) {
+            if (closed) return false;
+            try {
+                PrintWriter writer = async.getResponse().getWriter();
+                writer.write(text);
+                writer.flush();
+                if (writer.checkError()) throw new IOException("Client went away");
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            } catch (IllegalStateException e) {
+                close();
+                return false;
+            }
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // already completed by the container
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            gone();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            gone();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            gone();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void gone() {
+            synchronized (this) {
+                closed = true;
+            }
+            SubscriptionSampler.getInstance().unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.faces.context.FacesContext;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Resources read from the management model during a single Faces request.  The first attribute read at an
+ * address does one read-resource and every later read at that address is served from the cached node.
+ *
+ * The cache lives in the FacesContext attributes, so it goes away at the end of the request.
+ */
+class RequestCache {
+
+    private static final String KEY = RequestCache.class.getName();
+
+    // marks an address where read-resource failed so we don't try it again for every attribute
+    private static final ModelNode UNAVAILABLE = new ModelNode();
+
+    // marks a list that is not a property list
+    private static final Object NOT_A_PROPERTY_LIST = new Object();
+
+    private final Map<AddressPath, ModelNode> resources = new HashMap<AddressPath, ModelNode>();
+
+    // attributes read during this request by the address of their resource, wherever their values came from
+    private final Map<AddressPath, Set<String>> usedAttributes = new LinkedHashMap<AddressPath, Set<String>>();
+
+    // property list views by the node they were made from
+    private final Map<ModelNode, Object> propertyListViews = new IdentityHashMap<ModelNode, Object>();
+
+    // writes waiting to be sent together, or null when writes are not being batched
+    private List<ModelNode> writeBatch;
+
+    // aggregate expressions already evaluated
+    private final Map<String, Aggregate> aggregates = new HashMap<String, Aggregate>();
+
+    // results of read-only CLI commands, by command and locale
+    private final Map<String, ModelNode> cliResults = new HashMap<String, ModelNode>();
+
+    private String locale;
+
+    // addresses where a stale value had to be used because the management model could not be reached
+    private final Set<AddressPath> staleAddresses = new HashSet<AddressPath>();
+
+    // addresses that could not be reached, so the rest of the request doesn't wait for them again
+    private final Map<AddressPath, ManagementUnavailableException> unreachable = new HashMap<AddressPath, ManagementUnavailableException>();
+
+    private RequestCache() {
+    }
+
+    /**
+     * Get the cache for the current Faces request.
+     *
+     * @return The cache, or <code>null</code> if there is no current Faces request.
+     */
+    static RequestCache current() {
+        FacesContext fctx = FacesContext.getCurrentInstance();
+        if (fctx == null) return null;
+
+        Map<Object, Object> attributes = fctx.getAttributes();
+        RequestCache cache = (RequestCache) attributes.get(KEY);
+        if (cache == null) {
+            cache = new RequestCache();
+            attributes.put(KEY, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Get the locale of the current Faces request.
+     *
+     * @return The locale, or <code>null</code> if there is no current Faces request.
+     */
+    static String currentLocale() {
+        RequestCache cache = current();
+        if (cache == null) return null;
+
+        // calculating the locale matches the Accept-Language header against the supported locales, so only do it once
+        if (cache.locale == null) {
+            FacesContext fctx = FacesContext.getCurrentInstance();
+            Locale locale = fctx.getApplication().getViewHandler().calculateLocale(fctx);
+            cache.locale = locale.toString();
+        }
+        return cache.locale;
+    }
+
+    /**
+     * Get the resource at an address, reading it from the management model the first time it is asked for.
+     *
+     * @param address The address of the resource.
+     * @return The resource including runtime attributes, or <code>null</code> if it can not be read as a whole.
+     */
+    ModelNode getResource(AddressPath address) throws IOException {
+        ModelNode resource = resources.get(address);
+        if (resource == null) {
+            resource = readResource(address);
+            resources.put(address, resource);
+        }
+
+        if (resource == UNAVAILABLE) return null;
+
+        used(address);
+        return resource;
+    }
+
+    /**
+     * Get the indexed view of a property list.  The same node is classified and indexed only once per request.
+     *
+     * @return The view, or <code>null</code> if the node is not a property list.
+     */
+    PropertyListView propertyListView(ModelNode node) {
+        Object view = propertyListViews.get(node);
+        if (view == null) {
+            view = PropertyListView.of(node);
+            propertyListViews.put(node, (view == null) ? NOT_A_PROPERTY_LIST : view);
+        }
+        return (view == NOT_A_PROPERTY_LIST) ? null : (PropertyListView) view;
+    }
+
+    /**
+     * Read several resources in a single composite operation, so that later calls to
+     * {@link #getResource(AddressPath)} for these addresses don't go to the management model.
+     *
+     * @param addresses The addresses of the resources.
+     * @return The addresses that could not be read.  Reading them again will be attempted one at a time.
+     */
+    List<AddressPath> prefetch(Collection<AddressPath> addresses) throws IOException {
+        List<AddressPath> toRead = new ArrayList<AddressPath>(addresses.size());
+        for (AddressPath address : addresses) {
+            if (!resources.containsKey(address)) toRead.add(address);
+        }
+        if (toRead.isEmpty()) return Collections.emptyList();
+
+        ModelNode composite = new ModelNode();
+        composite.get("address").setEmptyList();
+        composite.get("operation").set("composite");
+        composite.get("operation-headers", "rollback-on-runtime-failure").set(false);
+        ModelNode steps = composite.get("steps").setEmptyList();
+        for (AddressPath address : toRead) {
+            steps.add(readResourceOperation(address));
+        }
+
+        ModelNode stepResults = CliResolver.dmrClient().execute(composite).get("result");
+
+        List<AddressPath> failed = new ArrayList<AddressPath>();
+        for (int i = 0; i < toRead.size(); i++) {
+            AddressPath address = toRead.get(i);
+            String stepName = "step-" + (i + 1);
+            if (stepResults.hasDefined(stepName) && !CliResolver.isOutcomeFailed(stepResults.get(stepName))) {
+                resources.put(address, stepResults.get(stepName, "result"));
+            } else {
+                failed.add(address);
+            }
+        }
+
+        return failed;
+    }
+
+    Aggregate getAggregate(String expression) {
+        return aggregates.get(expression);
+    }
+
+    void putAggregate(String expression, Aggregate aggregate) {
+        aggregates.put(expression, aggregate);
+    }
+
+    /**
+     * Hold the writes made from now on instead of executing them.
+     */
+    void startWriteBatch() {
+        writeBatch = new ArrayList<ModelNode>();
+    }
+
+    /**
+     * Hold a write until the batch ends.
+     *
+     * @return <code>false</code> if no batch is open, in which case the caller has to execute the write itself.
+     */
+    boolean bufferWrite(ModelNode operation) {
+        if (writeBatch == null) return false;
+        writeBatch.add(operation);
+        return true;
+    }
+
+    /**
+     * Stop holding writes.
+     *
+     * @return The writes held since the batch started, in order.
+     */
+    List<ModelNode> endWriteBatch() {
+        List<ModelNode> writes = writeBatch;
+        writeBatch = null;
+        if (writes == null) return Collections.emptyList();
+        return writes;
+    }
+
+    /**
+     * Get the result of a read-only CLI command already executed in this request.
+     *
+     * @return The result, or <code>null</code> if the command has not been executed in this locale.
+     */
+    ModelNode getCliResult(String command, String locale) {
+        return cliResults.get(cliKey(command, locale));
+    }
+
+    void putCliResult(String command, String locale, ModelNode result) {
+        cliResults.put(cliKey(command, locale), result);
+    }
+
+    private static String cliKey(String command, String locale) {
+        if (locale == null) return '|' + command;
+        return locale + '|' + command; // a locale never contains |
+    }
+
+    /**
+     * Note that the management model could not be reached for an address, so that later reads at the address in
+     * this request fail at once.
+     */
+    void markUnreachable(AddressPath address, ManagementUnavailableException e) {
+        unreachable.put(address, e);
+    }
+
+    /**
+     * @throws ManagementUnavailableException if the address could not be reached earlier in this request.
+     */
+    void checkReachable(AddressPath address) throws ManagementUnavailableException {
+        ManagementUnavailableException e = unreachable.get(address);
+        if (e != null) throw e;
+    }
+
+    /**
+     * Note that a value at an address was served stale in this request.
+     */
+    void markStale(AddressPath address) {
+        staleAddresses.add(address);
+    }
+
+    /**
+     * @return <code>true</code> if a stale value was served at the address or below it so far in this request.
+     */
+    boolean isStale(AddressPath address) {
+        for (AddressPath stale : staleAddresses) {
+            if (stale.startsWith(address)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if any stale value was served so far in this request.
+     */
+    boolean isStale() {
+        return !staleAddresses.isEmpty();
+    }
+
+    /**
+     * Note that an attribute was read, even if its value came from a cache rather than from this request.
+     */
+    void attributeRead(AddressPath address, String attribute) {
+        if (address.isWildcard()) return; // there is no single resource to read
+        used(address).add(attribute);
+    }
+
+    /**
+     * Get the attributes read during this request, by the address of every resource that was found.
+     */
+    Map<AddressPath, Set<String>> usedAttributes() {
+        return usedAttributes;
+    }
+
+    private Set<String> used(AddressPath address) {
+        Set<String> attributes = usedAttributes.get(address);
+        if (attributes == null) {
+            attributes = new HashSet<String>();
+            usedAttributes.put(address, attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * Forget the resource at an address, typically because it was just written.
+     */
+    void invalidate(AddressPath address) {
+        resources.remove(address);
+        cliResults.clear(); // any of them might include the address
+    }
+
+    /**
+     * Forget everything read so far in this request.
+     */
+    void invalidateAll() {
+        resources.clear();
+        aggregates.clear();
+        cliResults.clear();
+    }
+
+    private ModelNode readResource(AddressPath address) throws IOException {
+        // a wildcard address returns a list of results, not a resource
+        if (address.isWildcard()) return UNAVAILABLE;
+
+        ModelNode result = CliResolver.dmrClient().execute(readResourceOperation(address));
+        if (CliResolver.isOutcomeFailed(result)) return UNAVAILABLE;
+
+        return result.get("result");
+    }
+
+    private ModelNode readResourceOperation(AddressPath address) {
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(address.toModelNode());
+        operation.get("operation").set("read-resource");
+        operation.get("include-runtime").set(true);
+        return operation;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Settings for the resolver.  A setting can be given in a META-INF/cli-resolver.properties file packaged with the
+ * deployment (for a WAR, WEB-INF/classes/META-INF/cli-resolver.properties), or as a system property.  System
+ * properties win.
+ */
+final class Settings {
+
+    static final String RESOURCE = "META-INF/cli-resolver.properties";
+
+    private static final Logger log = Logger.getLogger(Settings.class.getName());
+
+    private static final Properties deploymentSettings = loadDeploymentSettings();
+
+    private Settings() {
+    }
+
+    static String get(String name) {
+        String value = System.getProperty(name);
+        if (value != null) return value;
+        return deploymentSettings.getProperty(name);
+    }
+
+    static String get(String name, String defaultValue) {
+        String value = get(name);
+        if (value == null) return defaultValue;
+        return value;
+    }
+
+    static int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warning("Ignoring invalid value " + value + " for " + name);
+            return defaultValue;
+        }
+    }
+
+    static long getLong(String name, long defaultValue) {
+        String value = get(name);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warning("Ignoring invalid value " + value + " for " + name);
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        if (value == null) return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private static Properties loadDeploymentSettings() {
+        Properties properties = new Properties();
+        ClassLoader loader = Settings.class.getClassLoader();
+        if (loader == null) return properties;
+
+        try {
+            Enumeration<URL> resources = loader.getResources(RESOURCE);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                InputStream in = url.openStream();
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to read " + RESOURCE, e);
+        }
+
+        return properties;
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Samples every watched attribute once per interval and tells subscribers only about the values that changed.
+ *
+ * However many browsers watch an attribute, it is read once per interval, and all of the watched attributes are
+ * read together in one composite operation.  Load on the controller grows with the number of distinct attributes
+ * watched, not with the number of viewers.  An attribute that cannot be read is taken out of the composite and read
+ * on its own until it can be read again, so that it does not fail the composite for everyone else.  The sampler
+ * thread starts with the first subscription and stops when the last subscriber leaves.
+ */
+final class SubscriptionSampler {
+
+    static final String INTERVAL = "org.jboss.cliresolver.push.interval";
+    static final String KEEP_ALIVE = "org.jboss.cliresolver.push.keepAlive";
+    static final String MAX_WATCHES = "org.jboss.cliresolver.push.maxWatches";
+
+    private static final Logger log = Logger.getLogger(SubscriptionSampler.class.getName());
+
+    private static final SubscriptionSampler instance = new SubscriptionSampler();
+
+    /**
+     * Gets told about changes.  Calls come from the sampler thread, one at a time.
+     */
+    interface Subscriber {
+        /**
+         * @param value The new value.  An attribute that cannot be read is not reported; its subscribers keep the last
+         *        value they were sent.
+         * @return <code>false</code> if the subscriber has gone away and should be dropped.
+         */
+        boolean changed(Watch watch, ModelNode value);
+
+        /**
+         * Called when nothing has been sent for a while, so that a dead connection is noticed.
+         *
+         * @return <code>false</code> if the subscriber has gone away and should be dropped.
+         */
+        boolean keepAlive();
+    }
+
+    private final long intervalMillis = Settings.getLong(INTERVAL, 2000);
+    private final long keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(Settings.getLong(KEEP_ALIVE, 15000));
+    private final int maxWatches = Settings.getInt(MAX_WATCHES, 1000);
+
+    // guarded by this
+    private final Map<Watch, Watched> watches = new HashMap<Watch, Watched>();
+    private final Map<Subscriber, Long> lastSent = new HashMap<Subscriber, Long>();
+    private ScheduledExecutorService sampler;
+
+    private SubscriptionSampler() {
+    }
+
+    static SubscriptionSampler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Read each attribute that nobody is watching yet, so that a watch that can never be read is rejected before it is
+     * subscribed.
+     *
+     * @throws IllegalArgumentException If an attribute cannot be read.
+     */
+    void validate(Collection<Watch> toWatch) throws IOException {
+        List<Watch> unknown = new ArrayList<Watch>();
+        synchronized (this) {
+            for (Watch watch : toWatch) {
+                if (!watches.containsKey(watch)) unknown.add(watch);
+            }
+        }
+
+        for (Watch watch : unknown) {
+            ModelNode result = CliResolver.dmrClient().execute(readAttribute(watch));
+            if (CliResolver.isOutcomeFailed(result)) {
+                throw new IllegalArgumentException(watch + " cannot be read: " + result.get("failure-description").asString());
+            }
+        }
+    }
+
+    /**
+     * Start telling a subscriber about changes to some attributes.  Values that have already been sampled are sent
+     * right away; the others are sent after the next sample.
+     *
+     * @throws IllegalStateException If this would watch more than the maximum number of attributes.
+     */
+    void subscribe(Subscriber subscriber, Collection<Watch> toWatch) {
+        Map<Watch, ModelNode> known = new HashMap<Watch, ModelNode>();
+        synchronized (this) {
+            int added = 0;
+            for (Watch watch : toWatch) {
+                if (!watches.containsKey(watch)) added++;
+            }
+            if (watches.size() + added > maxWatches) {
+                throw new IllegalStateException("Too many attributes watched.  The limit is " + maxWatches);
+            }
+
+            for (Watch watch : toWatch) {
+                Watched watched = watches.get(watch);
+                if (watched == null) {
+                    watched = new Watched();
+                    watches.put(watch, watched);
+                }
+                watched.subscribers.add(subscriber);
+                if (watched.value != null) known.put(watch, watched.value);
+            }
+            lastSent.put(subscriber, System.nanoTime());
+
+            if (sampler == null) start();
+        }
+
+        for (Map.Entry<Watch, ModelNode> entry : known.entrySet()) {
+            if (!subscriber.changed(entry.getKey(), entry.getValue())) {
+                unsubscribe(subscriber);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop telling a subscriber about changes.
+     */
+    synchronized void unsubscribe(Subscriber subscriber) {
+        lastSent.remove(subscriber);
+        for (Iterator<Watched> i = watches.values().iterator(); i.hasNext();) {
+            Watched watched = i.next();
+            watched.subscribers.remove(subscriber);
+            if (watched.subscribers.isEmpty()) i.remove();
+        }
+
+        if (watches.isEmpty()) shutdown();
+    }
+
+    synchronized int getWatchCount() {
+        return watches.size();
+    }
+
+    /**
+     * Stop sampling.  Called when the last subscriber leaves and when the management service stops.
+     */
+    synchronized void shutdown() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+    }
+
+    private void start() {
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName("CliResolverSubscriptionSampler");
+                return t;
+            }
+        });
+        sampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (Exception e) {
+                    // keep sampling.  The controller may be back by the next interval.
+                    log.log(Level.FINE, "Unable to sample watched attributes", e);
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read every watched attribute once and send the changes.
+     */
+    void sample() throws IOException {
+        List<Watch> toRead = new ArrayList<Watch>();
+        List<Watch> suspect = new ArrayList<Watch>();
+        synchronized (this) {
+            for (Map.Entry<Watch, Watched> entry : watches.entrySet()) {
+                if (entry.getValue().failing) {
+                    suspect.add(entry.getKey());
+                } else {
+                    toRead.add(entry.getKey());
+                }
+            }
+        }
+        if (toRead.isEmpty() && suspect.isEmpty()) return;
+
+        Map<Watch, ModelNode> values = new HashMap<Watch, ModelNode>();
+        if (!toRead.isEmpty()) {
+            ModelNode composite = new ModelNode();
+            composite.get("address").setEmptyList();
+            composite.get("operation").set("composite");
+            composite.get("operation-headers", "rollback-on-runtime-failure").set(false);
+            ModelNode steps = composite.get("steps").setEmptyList();
+            for (Watch watch : toRead) {
+                steps.add(readAttribute(watch));
+            }
+            ModelNode result = CliResolver.dmrClient().execute(composite);
+
+            if (CliResolver.isOutcomeFailed(result)) {
+                // one step the controller would not run fails the whole composite, so find it by reading them one by one
+                suspect.addAll(toRead);
+            } else {
+                ModelNode stepResults = result.get("result");
+                for (int i = 0; i < toRead.size(); i++) {
+                    String step = "step-" + (i + 1);
+                    if (!stepResults.has(step) || CliResolver.isOutcomeFailed(stepResults.get(step))) {
+                        suspect.add(toRead.get(i));
+                    } else {
+                        values.put(toRead.get(i), stepResults.get(step, "result"));
+                    }
+                }
+            }
+        }
+
+        for (Watch watch : suspect) {
+            ModelNode result = CliResolver.dmrClient().execute(readAttribute(watch));
+            if (!CliResolver.isOutcomeFailed(result)) values.put(watch, result.get("result"));
+        }
+
+        // work out who to tell while holding the lock, but tell them without it
+        List<Notification> notifications = new ArrayList<Notification>();
+        Set<Subscriber> idle = new LinkedHashSet<Subscriber>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            Set<Watch> sampled = new LinkedHashSet<Watch>(toRead);
+            sampled.addAll(suspect);
+            for (Watch watch : sampled) {
+                Watched watched = watches.get(watch);
+                if (watched == null) continue; // everyone left while we were reading
+
+                ModelNode read = values.get(watch);
+                watched.failing = (read == null);
+                if (read == null) continue; // keep the last value rather than send an undefined one
+
+                ModelNode value = read.clone();
+                value.protect();
+                if (value.equals(watched.value)) continue;
+
+                watched.value = value;
+                for (Subscriber subscriber : watched.subscribers) {
+                    notifications.add(new Notification(subscriber, watch, value));
+                    lastSent.put(subscriber, now);
+                }
+            }
+
+            for (Map.Entry<Subscriber, Long> entry : lastSent.entrySet()) {
+                if (now - entry.getValue() >= keepAliveNanos) {
+                    idle.add(entry.getKey());
+                    entry.setValue(now);
+                }
+            }
+        }
+
+        Set<Subscriber> gone = new LinkedHashSet<Subscriber>();
+        for (Notification notification : notifications) {
+            if (gone.contains(notification.subscriber)) continue;
+            if (!notification.subscriber.changed(notification.watch, notification.value)) gone.add(notification.subscriber);
+        }
+        for (Subscriber subscriber : idle) {
+            if (gone.contains(subscriber)) continue;
+            if (!subscriber.keepAlive()) gone.add(subscriber);
+        }
+        for (Subscriber subscriber : gone) {
+            unsubscribe(subscriber);
+        }
+    }
+
+    private static ModelNode readAttribute(Watch watch) {
+        ModelNode operation = new ModelNode();
+        operation.get("address").set(watch.address.toModelNode());
+        operation.get("operation").set("read-attribute");
+        operation.get("name").set(watch.attribute);
+        return operation;
+    }
+
+    /**
+     * An attribute at an address.
+     */
+    static final class Watch {
+        private final AddressPath address;
+        private final String attribute;
+
+        Watch(AddressPath address, String attribute) {
+            this.address = address;
+            this.attribute = attribute;
+        }
+
+        /**
+         * Parse a watch written the way it is written in an EL expression, such as
+         * <code>subsystem_eq_web.connector_eq_http.bytesSent</code>
+         */
+        static Watch parse(String expression) {
+            String[] parts = expression.split("\\.");
+            AddressPath address = AddressPath.ROOT;
+            for (int i = 0; i < parts.length - 1; i++) {
+                ElToken token = ElToken.parse(parts[i]);
+                if (token.kind() == ElToken.Kind.ROOT) {
+                    address = AddressPath.ROOT;
+                } else if (token.kind() == ElToken.Kind.ADDRESS) {
+                    address = address.append(token.key(), token.value());
+                } else {
+                    throw new IllegalArgumentException(parts[i] + " in " + expression + " is not an address segment");
+                }
+            }
+
+            ElToken attribute = ElToken.parse(parts[parts.length - 1]);
+            if ((attribute.kind() != ElToken.Kind.ATTRIBUTE) || address.isWildcard()) {
+                throw new IllegalArgumentException(expression + " does not name an attribute of a single resource");
+            }
+            return new Watch(address, attribute.name());
+        }
+
+        AddressPath getAddress() {
+            return address;
+        }
+
+        String getAttribute() {
+            return attribute;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * address.hashCode()) + attribute.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Watch)) return false;
+            Watch other = (Watch) obj;
+            return attribute.equals(other.attribute) && address.equals(other.address);
+        }
+
+        @Override
+        public String toString() {
+            return address + ":" + attribute;
+        }
+    }
+
+    private static final class Watched {
+        final Set<Subscriber> subscribers = new LinkedHashSet<Subscriber>();
+        ModelNode value; // null until sampled
+        boolean failing; // read on its own, outside the composite
+    }
+
+    private static final class Notification {
+        final Subscriber subscriber;
+        final Watch watch;
+        final ModelNode value;
+
+        Notification(Subscriber subscriber, Watch watch, ModelNode value) {
+            this.subscriber = subscriber;
+            this.watch = watch;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Application-wide cache of attribute values, shared by every request.
+ *
+ * How long a value stays fresh depends on the storage of the attribute in its description.  Configuration
+ * attributes almost never change, while runtime attributes such as metrics change all the time.  Both times can
+ * be set with system properties, and overridden for individual address templates with a list such as
+ * <pre>
+ * -Dorg.jboss.cliresolver.valueCache.overrides=/subsystem=web/connector=*:2000;/subsystem=logging:0
+ * </pre>
+ * An override can name an exact address or a template.
+ * A time of zero turns caching off.  Once a value expires it is still served for up to one more time period
+ * while a fresh value is read in the background.
+ *
+ * Writes that go through the resolver invalidate the values they affect.
+ */
+public class ValueCache {
+
+    public static final String CONFIGURATION_TTL = "org.jboss.cliresolver.valueCache.configurationTtl";
+    public static final String RUNTIME_TTL = "org.jboss.cliresolver.valueCache.runtimeTtl";
+    public static final String OVERRIDES = "org.jboss.cliresolver.valueCache.overrides";
+    public static final String MAX_ENTRIES = "org.jboss.cliresolver.valueCache.maxEntries";
+
+    private static final Logger log = Logger.getLogger(ValueCache.class.getName());
+
+    private static final ValueCache instance = new ValueCache();
+
+    private final BoundedCache<Key, Entry> values = new BoundedCache<Key, Entry>(Settings.getInt(MAX_ENTRIES, 10000));
+    private final Map<AddressPath, Long> ttlOverrides = new ConcurrentHashMap<AddressPath, Long>();
+    private final long configurationTtl = Settings.getLong(CONFIGURATION_TTL, 5000);
+    private final long runtimeTtl = Settings.getLong(RUNTIME_TTL, 1000);
+
+    // bumped on every invalidation so that a read which started before a write can't cache what it read
+    private final AtomicLong generation = new AtomicLong();
+
+    private ExecutorService refresher;
+
+    private ValueCache() {
+        String overrides = Settings.get(OVERRIDES);
+        if (overrides == null) return;
+
+        for (String override : overrides.split(";")) {
+            int separator = override.lastIndexOf(':');
+            if (separator < 0) continue;
+            setTtlOverride(override.substring(0, separator).trim(), Long.parseLong(override.substring(separator + 1).trim()));
+        }
+    }
+
+    public static ValueCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Set how long values at an address template stay fresh, regardless of their storage.
+     *
+     * @param template An address template such as /subsystem=web/connector=*
+     * @param ttlMillis Time to live in milliseconds.  Zero means the values are not cached.
+     */
+    public void setTtlOverride(String template, long ttlMillis) {
+        ttlOverrides.put(AddressPath.parse(template), ttlMillis);
+    }
+
+    /**
+     * Get a cached value.  If the value has expired but is still within its stale period, it is returned and a
+     * fresh value is read in the background.
+     *
+     * @return The value, or <code>null</code> if it has to be read.
+     */
+    ModelNode get(AddressPath address, String attribute) {
+        Entry entry = values.get(new Key(address, attribute));
+        if (entry == null) return null;
+
+        long now = System.nanoTime();
+        if (now - entry.expiresAt < 0) return entry.value;
+        if (now - entry.staleUntil >= 0) return null;
+
+        if (entry.refreshing.compareAndSet(false, true)) {
+            refreshInBackground(address, attribute, entry.ttlNanos);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Whether {@link #get(AddressPath, String)} would answer without reading the value.  Nothing is counted and no
+     * refresh is started.
+     */
+    boolean isCached(AddressPath address, String attribute) {
+        Entry entry = values.peek(new Key(address, attribute));
+        return (entry != null) && (System.nanoTime() - entry.staleUntil < 0);
+    }
+
+    /**
+     * Get a cached value no matter how old it is, for when the value can't be read right now.  Values that were
+     * invalidated by a write are never returned.
+     *
+     * @return The value, or <code>null</code> if there is none.
+     */
+    ModelNode getStale(AddressPath address, String attribute) {
+        Entry entry = values.get(new Key(address, attribute));
+        if (entry == null) return null;
+        return entry.value;
+    }
+
+    /**
+     * The current generation.  Pass it to {@link #put(AddressPath, String, ModelNode, long)} for a value read after
+     * this call.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Cache a value that was just read from the management model.
+     *
+     * @param generation The {@link #generation()} from before the value was read.
+     */
+    void put(AddressPath address, String attribute, ModelNode value, long generation) throws IOException {
+        long ttl = ttlOf(address, attribute);
+        if (ttl <= 0) return;
+
+        put(new Key(address, attribute), value, TimeUnit.MILLISECONDS.toNanos(ttl), generation);
+    }
+
+    /**
+     * Forget every value at an address and below it.  Called before a write to that address is executed, and again
+     * after it, so that a value read while the write was in progress is not kept.
+     */
+    synchronized void invalidate(AddressPath address) {
+        generation.incrementAndGet();
+
+        // a wildcard write affects everything below the wildcard's parent
+        AddressPath prefix = address;
+        while (prefix.isWildcard()) {
+            prefix = prefix.getParent();
+        }
+
+        if (prefix.isRoot()) {
+            values.clear();
+            return;
+        }
+
+        for (Key key : values.keys()) {
+            if (key.address.startsWith(prefix)) values.remove(key);
+        }
+    }
+
+    /**
+     * Called before a write operation is executed so that the values it may change can be dropped.  Call
+     * {@link #operationExecuted(ModelNode)} as well once it is done.
+     */
+    void operationExecuting(ModelNode operation) {
+        if (operation.get("operation").asString().equals("composite") && operation.hasDefined("steps")) {
+            for (ModelNode step : operation.get("steps").asList()) {
+                operationExecuting(step);
+            }
+            return;
+        }
+
+        if (operation.hasDefined("address")) {
+            invalidate(AddressPath.of(operation.get("address")));
+        } else {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Called after a write operation has been executed.  A read that ran while the write was in progress may have
+     * cached the old value after it was invalidated, so drop the values again.
+     */
+    void operationExecuted(ModelNode operation) {
+        operationExecuting(operation);
+    }
+
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        values.clear();
+    }
+
+    public long getHitCount() {
+        return values.hits();
+    }
+
+    public long getMissCount() {
+        return values.misses();
+    }
+
+    public int getSize() {
+        return values.size();
+    }
+
+    /**
+     * Stop reading values in the background.  Called when the management service stops.
+     */
+    synchronized void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    private void put(Key key, ModelNode value, long ttlNanos, long generation) {
+        value.protect();
+        Entry entry = new Entry(value, ttlNanos);
+        synchronized (this) { // don't race with invalidate
+            if (generation == this.generation.get()) values.put(key, entry);
+        }
+    }
+
+    private long ttlOf(AddressPath address, String attribute) throws IOException {
+        Long override = ttlOverrides.get(address);
+        if (override == null) override = ttlOverrides.get(DescriptionCache.getInstance().templateOf(address));
+        if (override != null) return override;
+
+        ModelNode description = DescriptionCache.getInstance().getAttributeDescription(address, attribute);
+        String storage = DescriptionCache.lookup(description, "storage").asString();
+        if (storage.equals("configuration")) return configurationTtl;
+        if (storage.equals("runtime")) return runtimeTtl;
+        return 0; // unknown attribute
+    }
+
+    private void refreshInBackground(final AddressPath address, final String attribute, final long ttlNanos) {
+        final long startGeneration = generation();
+        try {
+            refresher().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ModelNode operation = new ModelNode();
+                        operation.get("address").set(address.toModelNode());
+                        operation.get("operation").set("read-attribute");
+                        operation.get("name").set(attribute);
+
+                        ModelNode result = CliResolver.dmrClient().execute(operation);
+                        if (CliResolver.isOutcomeFailed(result)) {
+                            values.remove(new Key(address, attribute));
+                        } else {
+                            put(new Key(address, attribute), result.get("result"), ttlNanos, startGeneration);
+                        }
+                    } catch (ManagementUnavailableException e) {
+                        // keep the stale value.  It is all there is until the controller is back.
+                        log.log(Level.FINE, "Unable to refresh " + attribute + " at " + address, e);
+                    } catch (Exception e) {
+                        log.log(Level.FINE, "Unable to refresh " + attribute + " at " + address, e);
+                        values.remove(new Key(address, attribute));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many refreshes queued up.  The next reader after the stale period will read it.
+        }
+    }
+
+    private synchronized ExecutorService refresher() {
+        if (refresher == null) {
+            refresher = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("CliResolverValueCacheRefresher");
+                    return t;
+                }
+            });
+        }
+        return refresher;
+    }
+
+    private static final class Key {
+        private final AddressPath address;
+        private final String attribute;
+
+        Key(AddressPath address, String attribute) {
+            this.address = address;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * address.hashCode()) + attribute.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return attribute.equals(other.attribute) && address.equals(other.address);
+        }
+    }
+
+    private static class Entry {
+        final ModelNode value;
+        final long ttlNanos;
+        final long expiresAt;
+        final long staleUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(ModelNode value, long ttlNanos) {
+            this.value = value;
+            this.ttlNanos = ttlNanos;
+            this.expiresAt = System.nanoTime() + ttlNanos;
+            this.staleUntil = expiresAt + ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+
+/**
+ * Converts between the DMR value of an attribute and the Java value seen in EL.
+ *
+ * A converter is compiled once per attribute from the attribute's description, so converting a value is a single
+ * virtual call rather than a walk through every type.  Lists and objects get a converter for their elements, and
+ * complex value-types such as the one of subsystem=datasources:installed-drivers-list become a tree of converters
+ * that turns each element into a Map of typed fields.
+ */
+abstract class ValueConverter {
+
+    private static final Map<ModelType, ValueConverter> byType = new EnumMap<ModelType, ValueConverter>(ModelType.class);
+
+    /**
+     * Converts any value by its own type.  Used when there is no description, such as for the result of a _CLI_
+     * command.  Lists stay lists of ModelNode and objects stay ModelNode.
+     */
+    static final ValueConverter DYNAMIC = new ValueConverter(Object.class) {
+        @Override
+        Object toJava(ModelNode node) {
+            ValueConverter converter = byType.get(node.getType());
+            if (converter == null) return null;
+            return converter.toJava(node);
+        }
+
+        @Override
+        void write(ModelNode target, Object value) {
+            if (value instanceof Number) {
+                writeNumber(target, (Number) value);
+            } else if (value instanceof Boolean) {
+                target.set((Boolean) value);
+            } else if (value instanceof byte[]) {
+                target.set((byte[]) value);
+            } else if (value instanceof Property) {
+                target.set((Property) value);
+            } else if (value instanceof ModelType) {
+                target.set((ModelType) value);
+            } else if (value instanceof Collection) {
+                writeList(target, (Collection<?>) value, DYNAMIC);
+            } else if (value instanceof Map) {
+                writeObject(target, (Map<?, ?>) value, null, DYNAMIC);
+            } else {
+                super.write(target, value);
+            }
+        }
+    };
+
+    private static final ValueConverter NODE = new ValueConverter(ModelNode.class) {
+        @Override
+        Object toJava(ModelNode node) {
+            return node;
+        }
+    };
+
+    static {
+        byType.put(ModelType.BIG_DECIMAL, new ValueConverter(BigDecimal.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asBigDecimal();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof BigDecimal) {
+                    target.set((BigDecimal) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.BIG_INTEGER, new ValueConverter(BigInteger.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asBigInteger();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof BigInteger) {
+                    target.set((BigInteger) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.BOOLEAN, new ValueConverter(Boolean.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asBoolean();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof Boolean) {
+                    target.set((Boolean) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.BYTES, new ValueConverter(byte[].class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asBytes();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof byte[]) {
+                    target.set((byte[]) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.DOUBLE, new ValueConverter(Double.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asDouble();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof Number) {
+                    target.set(((Number) value).doubleValue());
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.INT, new ValueConverter(Integer.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asInt();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+                    target.set(((Number) value).intValue());
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.LONG, new ValueConverter(Long.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asLong();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+                    target.set(((Number) value).longValue());
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.STRING, new ValueConverter(String.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asString();
+            }
+        });
+        byType.put(ModelType.EXPRESSION, new ValueConverter(String.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asString();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof ModelNode) {
+                    target.set((ModelNode) value);
+                } else {
+                    target.setExpression(value.toString());
+                }
+            }
+        });
+        byType.put(ModelType.PROPERTY, new ValueConverter(Property.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asProperty();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof Property) {
+                    target.set((Property) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.TYPE, new ValueConverter(ModelType.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asType();
+            }
+
+            @Override
+            void write(ModelNode target, Object value) {
+                if (value instanceof ModelType) {
+                    target.set((ModelType) value);
+                } else {
+                    super.write(target, value);
+                }
+            }
+        });
+        byType.put(ModelType.OBJECT, new ValueConverter(Object.class) {
+            @Override
+            Object toJava(ModelNode node) {
+                return node.asObject();
+            }
+        });
+
+
+        // a list with no description of its elements.  Kept as ModelNodes so that property lists still work.
+        byType.put(ModelType.LIST, new ListConverter(NODE));
+    }
+
+    private final Class<?> javaType;
+
+    private ValueConverter(Class<?> javaType) {
+        this.javaType = javaType;
+    }
+
+    /**
+     * Get the converter for a simple type.
+     */
+    static ValueConverter of(ModelType type) {
+        ValueConverter converter = byType.get(type);
+        if (converter == null) return DYNAMIC;
+        return converter;
+    }
+
+    /**
+     * Compile the converter for an attribute, or for a field of a complex value-type.
+     *
+     * @param description The description of the attribute.  If it is undefined the value is converted by its own
+     *        type.
+     */
+    static ValueConverter compile(ModelNode description) {
+        ModelNode typeNode = DescriptionCache.lookup(description, "type");
+        if (typeNode.getType() != ModelType.TYPE) return UNDESCRIBED;
+
+        ModelType type = typeNode.asType();
+        ModelNode valueType = DescriptionCache.lookup(description, "value-type");
+
+        if (type == ModelType.LIST) {
+            return new ListConverter(elementConverter(valueType));
+        }
+
+        if (type == ModelType.OBJECT) {
+            if (valueType.getType() == ModelType.TYPE) return new MapConverter(of(valueType.asType()));
+            if (valueType.getType() == ModelType.OBJECT) return new ComplexConverter(valueType);
+            return of(ModelType.OBJECT);
+        }
+
+        return of(type);
+    }
+
+    // lists whose value-type is not given are lists of strings
+    private static ValueConverter elementConverter(ModelNode valueType) {
+        if (valueType.getType() == ModelType.TYPE) return of(valueType.asType());
+        if (valueType.getType() == ModelType.OBJECT) return new ComplexConverter(valueType);
+        return of(ModelType.STRING);
+    }
+
+    /**
+     * Used when there is no description.  The same as {@link #DYNAMIC} except that list elements become strings,
+     * the way attribute values always have.
+     */
+    private static final ValueConverter UNDESCRIBED = new ValueConverter(Object.class) {
+        @Override
+        Object toJava(ModelNode node) {
+            if (node.getType() == ModelType.LIST) return LIST_OF_STRINGS.toJava(node);
+            return DYNAMIC.toJava(node);
+        }
+
+        @Override
+        void write(ModelNode target, Object value) {
+            DYNAMIC.write(target, value);
+        }
+    };
+
+    private static final ValueConverter LIST_OF_STRINGS = new ListConverter(of(ModelType.STRING));
+
+    /**
+     * The class of the Java values, as reported by the resolver's getType.
+     */
+    Class<?> getJavaType() {
+        return javaType;
+    }
+
+    /**
+     * @return The Java value, or <code>null</code> if the node is undefined.  A value that is an expression, such as
+     *         ${jboss.http.port:8080}, is returned as the expression string whatever type the attribute is described
+     *         as, since it can't be converted until the server resolves it.
+     */
+    final Object convert(ModelNode node) {
+        if (!node.isDefined()) return null;
+        if (node.getType() == ModelType.EXPRESSION) return byType.get(ModelType.EXPRESSION).toJava(node);
+        return toJava(node);
+    }
+
+    /**
+     * Convert a defined node.
+     */
+    abstract Object toJava(ModelNode node);
+
+    /**
+     * Set a Java value into a node, such as the "value" of a write-attribute.  A value that is not of the expected
+     * Java type is sent as a string and left to the server to convert.
+     */
+    void write(ModelNode target, Object value) {
+        if (value instanceof ModelNode) {
+            target.set((ModelNode) value);
+        } else {
+            target.set(value.toString());
+        }
+    }
+
+    private static void writeNumber(ModelNode target, Number value) {
+        if (value instanceof Integer) {
+            target.set(value.intValue());
+        } else if (value instanceof Long) {
+            target.set(value.longValue());
+        } else if (value instanceof BigDecimal) {
+            target.set((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            target.set((BigInteger) value);
+        } else if ((value instanceof Double) || (value instanceof Float)) {
+            target.set(value.doubleValue());
+        } else {
+            target.set(value.toString());
+        }
+    }
+
+    private static void writeList(ModelNode target, Collection<?> values, ValueConverter elements) {
+        target.setEmptyList();
+        for (Object value : values) {
+            ModelNode element = target.add();
+            if (value != null) elements.write(element, value);
+        }
+    }
+
+    // fields is null when every field is written with the same converter
+    private static void writeObject(ModelNode target, Map<?, ?> values, Map<String, ValueConverter> fields, ValueConverter others) {
+        target.setEmptyObject();
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            String name = entry.getKey().toString();
+            ModelNode field = target.get(name);
+            if (entry.getValue() == null) continue;
+
+            ValueConverter converter = (fields == null) ? null : fields.get(name);
+            if (converter == null) converter = others;
+            converter.write(field, entry.getValue());
+        }
+    }
+
+    /**
+     * A list whose elements all have the same converter.
+     */
+    private static final class ListConverter extends ValueConverter {
+        private final ValueConverter elements;
+
+        ListConverter(ValueConverter elements) {
+            super(Collection.class);
+            this.elements = elements;
+        }
+
+        @Override
+        Object toJava(ModelNode node) {
+            if (node.getType() != ModelType.LIST) return DYNAMIC.toJava(node);
+
+            List<ModelNode> nodes = node.asList();
+            List<Object> values = new ArrayList<Object>(nodes.size());
+            for (ModelNode element : nodes) {
+                values.add(elements.convert(element));
+            }
+            return values;
+        }
+
+        @Override
+        void write(ModelNode target, Object value) {
+            if (value instanceof Collection) {
+                writeList(target, (Collection<?>) value, elements);
+            } else {
+                super.write(target, value);
+            }
+        }
+    }
+
+    /**
+     * An object whose fields all have the same converter, such as a map of properties.
+     */
+    private static final class MapConverter extends ValueConverter {
+        private final ValueConverter fields;
+
+        MapConverter(ValueConverter fields) {
+            super(Map.class);
+            this.fields = fields;
+        }
+
+        @Override
+        Object toJava(ModelNode node) {
+            if (node.getType() != ModelType.OBJECT) return DYNAMIC.toJava(node);
+
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (Property field : node.asPropertyList()) {
+                values.put(field.getName(), fields.convert(field.getValue()));
+            }
+            return Collections.unmodifiableMap(values);
+        }
+
+        @Override
+        void write(ModelNode target, Object value) {
+            if (value instanceof Map) {
+                writeObject(target, (Map<?, ?>) value, null, fields);
+            } else {
+                super.write(target, value);
+            }
+        }
+    }
+
+    /**
+     * An object whose fields are described one by one by a complex value-type.
+     */
+    private static final class ComplexConverter extends ValueConverter {
+        private final Map<String, ValueConverter> fields = new LinkedHashMap<String, ValueConverter>();
+
+        ComplexConverter(ModelNode valueType) {
+            super(Map.class);
+            for (String name : valueType.keys()) {
+                fields.put(name, compile(DescriptionCache.lookup(valueType, name)));
+            }
+        }
+
+        @Override
+        Object toJava(ModelNode node) {
+            if (node.getType() != ModelType.OBJECT) return DYNAMIC.toJava(node);
+
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (Property field : node.asPropertyList()) {
+                ValueConverter converter = fields.get(field.getName());
+                if (converter == null) converter = UNDESCRIBED;
+                values.put(field.getName(), converter.convert(field.getValue()));
+            }
+            return Collections.unmodifiableMap(values);
+        }
+
+        @Override
+        void write(ModelNode target, Object value) {
+            if (value instanceof Map) {
+                writeObject(target, (Map<?, ?>) value, fields, DYNAMIC);
+            } else {
+                super.write(target, value);
+            }
+        }
+    }
+}
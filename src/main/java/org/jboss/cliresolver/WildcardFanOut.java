@@ -0,0 +1,300 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Runs a read on a wildcard address as one read per matching resource, several at a time.
+ *
+ * The controller runs a wildcard operation such as /host=*&#47;server=*:read-resource one resource after
+ * another.  In a big domain that takes seconds.  Here the wildcards are expanded with read-children-names and the
+ * reads are sent in parallel on a small pool of threads, so the whole read takes about as long as the slowest
+ * resource.  The result has the same shape as the controller's: a list with the address, outcome and result of
+ * each resource.  A resource that doesn't answer in time is in the list with a failed outcome, so a page shows what
+ * it has instead of waiting for the slowest server.  Each read gets the whole timeout, counted from when it is sent,
+ * so reads that wait for a free thread, or for the wildcards to be expanded, are not cut short.
+ *
+ * Turn this on with the org.jboss.cliresolver.fanOut setting.
+ */
+final class WildcardFanOut {
+
+    static final String ENABLED = "org.jboss.cliresolver.fanOut";
+    static final String THREADS = "org.jboss.cliresolver.fanOut.threads";
+    static final String TIMEOUT = "org.jboss.cliresolver.fanOut.timeout";
+
+    // reads that give one result per resource, so they can be split up and put back together
+    private static final Set<String> OPERATIONS = new HashSet<String>(Arrays.asList(
+            "read-attribute", "read-resource", "read-children-names", "read-children-resources"));
+
+    private static final boolean enabled = Settings.getBoolean(ENABLED, false);
+    private static final int threads = Settings.getInt(THREADS, 8);
+    private static final long timeoutMillis = Settings.getLong(TIMEOUT, 5000);
+    private static final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    private static ExecutorService executor;
+
+    private WildcardFanOut() {
+    }
+
+    /**
+     * @return <code>true</code> if the operation should be run with {@link #execute(ModelNode)}.
+     */
+    static boolean isFanOut(ModelNode operation) {
+        if (!enabled || !operation.hasDefined("address")) return false;
+        if (!OPERATIONS.contains(operation.get("operation").asString())) return false;
+        return AddressPath.of(operation.get("address")).isWildcard();
+    }
+
+    /**
+     * Run a read on a wildcard address.
+     *
+     * @return A response with the results of every matching resource, in the order the resources were found.
+     */
+    static ModelNode execute(ModelNode operation) throws IOException {
+        List<AddressPath> addresses = expand(AddressPath.of(operation.get("address")));
+
+        ModelNode response = new ModelNode();
+        response.get("outcome").set("success");
+        ModelNode results = response.get("result").setEmptyList();
+        for (Reply reply : executeEach(operation, addresses)) {
+            ModelNode element = results.add();
+            element.get("address").set(reply.address.toModelNode());
+            element.get("outcome").set(reply.response.get("outcome"));
+            if (reply.response.has("result")) element.get("result").set(reply.response.get("result"));
+            if (reply.response.hasDefined("failure-description")) {
+                element.get("failure-description").set(reply.response.get("failure-description"));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Run an operation at each of several addresses in parallel.
+     *
+     * @return The reply from each address, in the same order as the addresses.
+     */
+    static List<Reply> executeEach(ModelNode operation, List<AddressPath> addresses) throws IOException {
+        List<Read> reads = new ArrayList<Read>(addresses.size());
+        for (AddressPath address : addresses) {
+            ModelNode childOperation = operation.clone();
+            childOperation.get("address").set(address.toModelNode());
+            reads.add(submit(address, childOperation));
+        }
+
+        List<Reply> replies = new ArrayList<Reply>(addresses.size());
+        for (Read read : reads) {
+            replies.add(read.await());
+        }
+        return replies;
+    }
+
+    /**
+     * Stop the threads.  Called when the management service stops.
+     */
+    static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Replace each wildcard with the names of the children that are there.  All of the children at one level are
+     * listed in parallel.
+     */
+    static List<AddressPath> expand(AddressPath address) throws IOException {
+        List<AddressPath> addresses = new ArrayList<AddressPath>();
+        addresses.add(address);
+
+        while (true) {
+            List<AddressPath> expanded = new ArrayList<AddressPath>();
+            List<AddressPath> wildcards = new ArrayList<AddressPath>();
+            List<Read> reads = new ArrayList<Read>();
+            for (AddressPath candidate : addresses) {
+                AddressPath wildcard = firstWildcard(candidate);
+                if (wildcard == null) continue;
+
+                ModelNode operation = new ModelNode();
+                operation.get("address").set(wildcard.getParent().toModelNode());
+                operation.get("operation").set("read-children-names");
+                operation.get("child-type").set(wildcard.getKey());
+                wildcards.add(candidate);
+                reads.add(submit(wildcard, operation));
+            }
+            if (wildcards.isEmpty()) return addresses;
+
+            int next = 0;
+            for (AddressPath candidate : addresses) {
+                AddressPath wildcard = firstWildcard(candidate);
+                if (wildcard == null) {
+                    expanded.add(candidate);
+                    continue;
+                }
+
+                ModelNode response = reads.get(next++).await().response;
+                if (CliResolver.isOutcomeFailed(response)) continue; // nothing there, or it didn't answer in time
+
+                for (ModelNode name : response.get("result").asList()) {
+                    expanded.add(replace(candidate, wildcard, name.asString()));
+                }
+            }
+            addresses = expanded;
+        }
+    }
+
+    // the shortest prefix of the address that ends in a wildcard
+    private static AddressPath firstWildcard(AddressPath address) {
+        if (!address.isWildcard()) return null;
+
+        AddressPath prefix = address;
+        while (prefix.getParent().isWildcard()) {
+            prefix = prefix.getParent();
+        }
+        return prefix;
+    }
+
+    // rebuild the address with the wildcard at the end of prefix replaced by a name
+    private static AddressPath replace(AddressPath address, AddressPath prefix, String name) {
+        if (address == prefix) return prefix.getParent().append(prefix.getKey(), name);
+        return replace(address.getParent(), prefix, name).append(address.getKey(), address.getValue());
+    }
+
+    private static Read submit(final AddressPath address, ModelNode operation) {
+        Read read = new Read(address, operation);
+        try {
+            read.future = executor().submit(read);
+        } catch (RejectedExecutionException e) {
+            FutureTask<Reply> rejected = new FutureTask<Reply>(new Callable<Reply>() {
+                @Override
+                public Reply call() {
+                    return new Reply(address, failed("Too many reads waiting to be sent"), 0);
+                }
+            });
+            rejected.run();
+            read.future = rejected;
+        }
+        return read;
+    }
+
+    private static ModelNode failed(String description) {
+        ModelNode response = new ModelNode();
+        response.get("outcome").set("failed");
+        response.get("failure-description").set(description);
+        return response;
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("CliResolverFanOut-" + count.incrementAndGet());
+                    return t;
+                }
+            });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * The response from one address and how long it took.
+     */
+    /**
+     * One read on the pool.  It has until the timeout after it starts to answer.
+     */
+    private static final class Read implements Callable<Reply> {
+        private final AddressPath address;
+        private final ModelNode operation;
+        private Future<Reply> future;
+        private volatile boolean started;
+        private volatile long startedAt;
+
+        Read(AddressPath address, ModelNode operation) {
+            this.address = address;
+            this.operation = operation;
+        }
+
+        @Override
+        public Reply call() throws IOException {
+            startedAt = System.nanoTime();
+            started = true;
+            ModelNode response = CliResolver.dmrClient().execute(operation);
+            return new Reply(address, response, System.nanoTime() - startedAt);
+        }
+
+        // a read still waiting for a thread gets one timeout to start, and then one timeout to answer
+        Reply await() throws IOException {
+            long awaitedAt = System.nanoTime();
+            try {
+                while (true) {
+                    long until = (started ? startedAt : awaitedAt) + timeoutNanos;
+                    try {
+                        return future.get(Math.max(0, until - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        if (started && (System.nanoTime() - (startedAt + timeoutNanos) < 0)) continue; // started late
+                        future.cancel(true);
+                        String description = started ? "No answer within " + timeoutMillis + " ms" : "Not sent within " + timeoutMillis + " ms";
+                        return new Reply(address, failed(description), timeoutNanos);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                return new Reply(address, failed(String.valueOf(e.getCause())), 0);
+            }
+        }
+    }
+
+    static final class Reply {
+        final AddressPath address;
+        final ModelNode response;
+        final long nanos;
+
+        Reply(AddressPath address, ModelNode response, long nanos) {
+            this.address = address;
+            this.response = response;
+            this.nanos = nanos;
+        }
+    }
+}
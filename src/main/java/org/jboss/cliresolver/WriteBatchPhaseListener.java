@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.cliresolver;
+
+import java.io.IOException;
+import java.util.List;
+import javax.el.ELException;
+import javax.faces.context.FacesContext;
+import javax.faces.event.ExceptionQueuedEvent;
+import javax.faces.event.ExceptionQueuedEventContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Sends every write made while updating the model as one composite operation.
+ *
+ * Without this, each field of a form is written with its own operation, so a form with many fields costs many
+ * round trips, and a failure part way through leaves the server half configured.  With it, the writes are held
+ * until the end of the update model values phase and then executed together, so they either all happen or are
+ * all rolled back.  A failure is queued as a {@link DmrOperationFailedException} for the application's
+ * ExceptionHandler, and the response is rendered without invoking the application.
+ *
+ * Turn this on with the org.jboss.cliresolver.batchWrites setting.
+ */
+public class WriteBatchPhaseListener implements PhaseListener {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ENABLED = "org.jboss.cliresolver.batchWrites";
+
+    private final boolean enabled = Settings.getBoolean(ENABLED, false);
+
+    @Override
+    public PhaseId getPhaseId() {
+        return PhaseId.UPDATE_MODEL_VALUES;
+    }
+
+    @Override
+    public void beforePhase(PhaseEvent event) {
+        if (!enabled) return;
+
+        RequestCache requestCache = RequestCache.current();
+        if (requestCache != null) requestCache.startWriteBatch();
+    }
+
+    @Override
+    public void afterPhase(PhaseEvent event) {
+        RequestCache requestCache = RequestCache.current();
+        if (requestCache == null) return;
+
+        List<ModelNode> writes = requestCache.endWriteBatch();
+        if (writes.isEmpty()) return;
+
+        // another value could not be updated, so none of them are
+        if (event.getFacesContext().getRenderResponse()) return;
+
+        ModelNode operation = batch(writes);
+        ELException failure = null;
+        try {
+            ModelNode result = NativeExecutor.executeOperation(operation);
+            if (CliResolver.isOutcomeFailed(result)) {
+                failure = new DmrOperationFailedException(operation, result);
+            }
+        } catch (IOException e) {
+            failure = new ELException(e);
+        }
+
+        if (failure != null) {
+            FacesContext fctx = event.getFacesContext();
+            fctx.renderResponse();
+            fctx.getApplication().publishEvent(fctx, ExceptionQueuedEvent.class, new ExceptionQueuedEventContext(fctx, failure));
+        }
+    }
+
+    // a single write doesn't need a composite
+    private ModelNode batch(List<ModelNode> writes) {
+        if (writes.size() == 1) return writes.get(0);
+
+        ModelNode composite = new ModelNode();
+        composite.get("address").setEmptyList();
+        composite.get("operation").set("composite");
+        ModelNode steps = composite.get("steps").setEmptyList();
+        for (ModelNode write : writes) {
+            steps.add(write);
+        }
+        return composite;
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.test.cliresolver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.cliresolver.DomainClientPool;
+import org.jboss.cliresolver.DomainClientPool.Selection;
+import org.jboss.cliresolver.GuardedClient;
+import org.jboss.cliresolver.ManagementUnavailableException;
+import org.jboss.dmr.ModelNode;
+import org.jboss.threads.AsyncFuture;
+import org.jboss.threads.AsyncFutureTask;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the domain controller connection pool, run against stand-in clients instead of a real domain controller.
+ */
+public class DomainClientPoolTest {
+
+    @Test
+    public void testRoundRobinSpreadsCalls() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 3, Selection.ROUND_ROBIN, 0, 0, 0);
+
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals("success", pool.execute(readLaunchType()).get("outcome").asString());
+        }
+
+        Assert.assertEquals(3, connector.clients.size());
+        for (StandInClient client : connector.clients) {
+            Assert.assertEquals(2, client.calls);
+        }
+        pool.close();
+    }
+
+    @Test
+    public void testLeastInFlightAvoidsBusyConnection() throws Exception {
+        StandInConnector connector = new StandInConnector();
+        final DomainClientPool pool = new DomainClientPool(connector, 2, Selection.LEAST_IN_FLIGHT, 0, 0, 0);
+
+        // open both connections.  Ties go round-robin, so the next call lands on the first connection again.
+        pool.execute(readLaunchType());
+        pool.execute(readLaunchType());
+        StandInClient busy = connector.clients.get(0);
+        StandInClient free = connector.clients.get(1);
+        busy.entered = new CountDownLatch(1);
+        busy.hold = new CountDownLatch(1);
+
+        Thread slowCall = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.execute(readLaunchType());
+                } catch (IOException e) {
+                    // the assertions below will fail
+                }
+            }
+        };
+        slowCall.start();
+        Assert.assertTrue(busy.entered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 4; i++) {
+            pool.execute(readLaunchType());
+        }
+        Assert.assertEquals(2, busy.calls);
+        Assert.assertEquals(5, free.calls);
+        Assert.assertEquals(1, pool.getInFlight());
+
+        busy.hold.countDown();
+        slowCall.join(5000);
+        Assert.assertEquals(0, pool.getInFlight());
+        pool.close();
+    }
+
+    @Test
+    public void testReadIsRetriedOnNewConnection() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 0, 0, 0);
+
+        pool.execute(readLaunchType());
+        connector.clients.get(0).broken = true; // the controller restarted
+
+        Assert.assertEquals("success", pool.execute(readLaunchType()).get("outcome").asString());
+        Assert.assertEquals(2, connector.clients.size());
+        Assert.assertTrue(connector.clients.get(0).closed);
+        pool.close();
+    }
+
+    @Test
+    public void testWriteIsNotRetried() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 0, 0, 0);
+
+        pool.execute(readLaunchType());
+        connector.clients.get(0).broken = true;
+
+        ModelNode write = new ModelNode();
+        write.get("address").setEmptyList();
+        write.get("operation").set("write-attribute");
+        try {
+            pool.execute(write);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, connector.clients.get(0).failedCalls);
+
+        // the next call reconnects
+        Assert.assertEquals("success", pool.execute(write).get("outcome").asString());
+        Assert.assertEquals(2, connector.clients.size());
+        pool.close();
+    }
+
+    @Test
+    public void testBacksOffWhileControllerIsDown() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        connector.down = true;
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 0, 60000, 60000);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.execute(readLaunchType());
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        Assert.assertEquals(1, connector.attempts); // no reconnect attempts until the backoff is over
+        Assert.assertEquals(0, pool.getConnectedCount());
+        pool.close();
+    }
+
+    @Test
+    public void testHealthCheckReplacesDeadConnection() throws Exception {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 20, 0, 0);
+
+        pool.execute(readLaunchType());
+        connector.clients.get(0).broken = true;
+
+        long giveUp = System.currentTimeMillis() + 5000;
+        while ((connector.clients.size() < 2) && (System.currentTimeMillis() < giveUp)) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(2, connector.clients.size());
+        Assert.assertTrue(connector.clients.get(0).closed);
+        pool.close();
+    }
+
+    @Test
+    public void testReadWithDeadlineIsRetriedOnNewConnection() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 0, 0, 0);
+        GuardedClient client = new GuardedClient(pool, 1000, new HashMap<String, Long>(), 0, 0);
+
+        client.execute(readLaunchType());
+        connector.clients.get(0).broken = true;
+
+        Assert.assertEquals("success", client.execute(readLaunchType()).get("outcome").asString());
+        Assert.assertEquals(2, connector.clients.size());
+        Assert.assertTrue(connector.clients.get(0).closed);
+        Assert.assertEquals(0, pool.getInFlight());
+        pool.close();
+    }
+
+    @Test
+    public void testTimedOutConnectionIsReplaced() throws IOException {
+        StandInConnector connector = new StandInConnector();
+        DomainClientPool pool = new DomainClientPool(connector, 1, Selection.ROUND_ROBIN, 0, 0, 0);
+        GuardedClient client = new GuardedClient(pool, 100, new HashMap<String, Long>(), 0, 0);
+
+        client.execute(readLaunchType());
+        StandInClient hung = connector.clients.get(0);
+        hung.entered = new CountDownLatch(1);
+        hung.hold = new CountDownLatch(1);
+
+        try {
+            client.execute(readLaunchType());
+            Assert.fail("Expected a timeout");
+        } catch (ManagementUnavailableException e) {
+            // expected
+        }
+        Assert.assertTrue(hung.closed);
+        Assert.assertEquals(0, pool.getInFlight());
+
+        // the next call reconnects
+        Assert.assertEquals("success", client.execute(readLaunchType()).get("outcome").asString());
+        Assert.assertEquals(2, connector.clients.size());
+        hung.hold.countDown();
+        pool.close();
+    }
+
+    @Test
+    public void testOnlyTimeoutsAndBrokenConnectionsOpenBreaker() throws IOException {
+        StandInClient target = new StandInClient();
+        GuardedClient client = new GuardedClient(target, 1000, new HashMap<String, Long>(), 1, 60000);
+
+        target.rejects = new IllegalArgumentException("Malformed operation");
+        try {
+            client.execute(readLaunchType());
+            Assert.fail("Expected the operation to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        target.rejects = null;
+
+        // held, so that the caller is still waiting when it notices the interrupt
+        target.entered = new CountDownLatch(1);
+        target.hold = new CountDownLatch(1);
+        Thread.currentThread().interrupt();
+        try {
+            client.execute(readLaunchType());
+            Assert.fail("Expected an interrupt");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        target.hold.countDown();
+        target.hold = null;
+
+        Assert.assertEquals("success", client.execute(readLaunchType()).get("outcome").asString());
+
+        target.broken = true;
+        try {
+            client.execute(readLaunchType());
+            Assert.fail("Expected a broken connection");
+        } catch (IOException e) {
+            // expected
+        }
+        target.broken = false;
+        try {
+            client.execute(readLaunchType());
+            Assert.fail("Expected the breaker to be open");
+        } catch (ManagementUnavailableException e) {
+            // expected
+        }
+    }
+
+    private static ModelNode readLaunchType() {
+        ModelNode operation = new ModelNode();
+        operation.get("address").setEmptyList();
+        operation.get("operation").set("read-attribute");
+        operation.get("name").set("launch-type");
+        return operation;
+    }
+
+    private static class StandInConnector implements DomainClientPool.Connector {
+        final List<StandInClient> clients = new ArrayList<StandInClient>();
+        volatile boolean down;
+        volatile int attempts;
+
+        @Override
+        public synchronized ModelControllerClient connect() throws IOException {
+            attempts++;
+            if (down) throw new IOException("Connection refused");
+
+            StandInClient client = new StandInClient();
+            clients.add(client);
+            return client;
+        }
+    }
+
+    // answers every operation with success, unless it has been told it is broken
+    private static class StandInClient implements ModelControllerClient {
+        volatile boolean broken;
+        volatile RuntimeException rejects;
+        volatile boolean closed;
+        volatile int calls;
+        volatile int failedCalls;
+        volatile CountDownLatch entered;
+        volatile CountDownLatch hold;
+
+        @Override
+        public ModelNode execute(ModelNode operation) throws IOException {
+            if (broken || closed) {
+                failedCalls++;
+                throw new IOException("Channel closed");
+            }
+            if (rejects != null) throw rejects;
+
+            synchronized (this) {
+                calls++;
+            }
+
+            CountDownLatch waitFor = hold;
+            if (waitFor != null) {
+                entered.countDown();
+                try {
+                    waitFor.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            ModelNode result = new ModelNode();
+            result.get("outcome").set("success");
+            result.get("result").set("DOMAIN");
+            return result;
+        }
+
+        @Override
+        public ModelNode execute(Operation operation) throws IOException {
+            return execute(operation.getOperation());
+        }
+
+        @Override
+        public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+            return execute(operation);
+        }
+
+        @Override
+        public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+            return execute(operation.getOperation());
+        }
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+            return new StandInExecution(this, operation).start();
+        }
+
+        @Override
+        public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+            return new StandInExecution(this, operation.getOperation()).start();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // runs one call on its own thread.  Cancelling interrupts it.
+    private static class StandInExecution extends AsyncFutureTask<ModelNode> implements Runnable {
+        private final StandInClient client;
+        private final ModelNode operation;
+        private final Thread thread = new Thread(this, "StandInExecution");
+
+        StandInExecution(StandInClient client, ModelNode operation) {
+            super(new Executor() {
+                @Override
+                public void execute(Runnable listener) {
+                    listener.run();
+                }
+            });
+            this.client = client;
+            this.operation = operation;
+        }
+
+        StandInExecution start() {
+            thread.setDaemon(true);
+            thread.start();
+            return this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                setResult(client.execute(operation));
+            } catch (IOException e) {
+                setFailed(e);
+            } catch (RuntimeException e) {
+                setFailed(e);
+            }
+        }
+
+        @Override
+        public void asyncCancel(boolean interruptionDesired) {
+            if (setCancelled() && interruptionDesired) thread.interrupt();
+        }
+    }
+}
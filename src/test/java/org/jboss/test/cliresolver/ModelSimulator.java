@@ -0,0 +1,503 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.test.cliresolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jboss.as.controller.client.ModelControllerClient;
+import org.jboss.as.controller.client.Operation;
+import org.jboss.as.controller.client.OperationMessageHandler;
+import org.jboss.cliresolver.AddressPath;
+import org.jboss.cliresolver.ManagementClientProvider;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.dmr.Property;
+import org.jboss.threads.AsyncFuture;
+import org.jboss.threads.AsyncFutureTask;
+
+/**
+ * A management model held in memory, for running the resolver without a server.
+ *
+ * The model is loaded from a snapshot, which is a DMR object with two entries:
+ * <pre>
+ * {
+ *     "model" => the result of :read-resource(recursive=true,include-runtime=true),
+ *     "description" => the result of :read-resource-description(recursive=true)
+ * }
+ * </pre>
+ * The simulator answers read-attribute, read-resource, read-resource-description, read-children-names,
+ * read-operation-description, validate-address,
+ * write-attribute and composite, including wildcard addresses, synchronously or asynchronously.  Each operation can be given a latency and the
+ * simulator adds a random jitter on top, so load tests see production-shaped response times.
+ */
+public class ModelSimulator implements ModelControllerClient, ManagementClientProvider {
+
+    // attributes of every resource, by address
+    private final Map<AddressPath, ModelNode> resources = new HashMap<AddressPath, ModelNode>();
+
+    // description of each resource without its children, by address.  Values may be * for wildcard registrations.
+    private final Map<AddressPath, ModelNode> descriptions = new HashMap<AddressPath, ModelNode>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Long> latencyMicros = new ConcurrentHashMap<String, Long>();
+    private volatile long defaultLatencyMicros;
+    private volatile long jitterMicros;
+
+    private final AtomicLong operationCount = new AtomicLong();
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Load a snapshot from the class path.
+     */
+    public static ModelSimulator fromResource(String name) throws IOException {
+        InputStream in = ModelSimulator.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) throw new IOException("Snapshot " + name + " not found");
+
+        try {
+            Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            return new ModelSimulator(ModelNode.fromString(scanner.next()));
+        } finally {
+            in.close();
+        }
+    }
+
+    public ModelSimulator(ModelNode snapshot) {
+        ModelNode description = snapshot.has("description") ? snapshot.get("description") : new ModelNode();
+        load(snapshot.get("model"), description, AddressPath.ROOT, AddressPath.ROOT);
+    }
+
+    /**
+     * How long every operation takes unless it has its own latency.
+     */
+    public ModelSimulator defaultLatency(long micros) {
+        defaultLatencyMicros = micros;
+        return this;
+    }
+
+    /**
+     * How long one operation, such as read-attribute, takes.  A composite takes its own latency, not the sum of
+     * its steps.
+     */
+    public ModelSimulator latency(String operation, long micros) {
+        latencyMicros.put(operation, micros);
+        return this;
+    }
+
+    /**
+     * Add a random time between zero and micros to every operation.
+     */
+    public ModelSimulator jitter(long micros) {
+        jitterMicros = micros;
+        return this;
+    }
+
+    /**
+     * @return The number of operations executed, counting a composite once.
+     */
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    @Override
+    public ModelControllerClient getClient() {
+        return this;
+    }
+
+    // split the recursive dump into one entry per resource
+    private void load(ModelNode model, ModelNode description, AddressPath address, AddressPath descriptionAddress) {
+        ModelNode attributes = new ModelNode().setEmptyObject();
+        ModelNode childTypes = description.has("children") ? description.get("children") : new ModelNode();
+
+        if (model.isDefined()) {
+            for (Property property : model.asPropertyList()) {
+                String name = property.getName();
+                if (!isChildType(name, property.getValue(), childTypes)) {
+                    attributes.get(name).set(property.getValue());
+                    continue;
+                }
+
+                if (!property.getValue().isDefined()) continue;
+                for (Property child : property.getValue().asPropertyList()) {
+                    ModelNode childDescription = new ModelNode();
+                    String descriptionValue = "*";
+                    if (childTypes.has(name)) {
+                        ModelNode registrations = childTypes.get(name, "model-description");
+                        if (registrations.has(child.getName())) descriptionValue = child.getName();
+                        childDescription = registrations.get(descriptionValue);
+                    }
+                    load(child.getValue(), childDescription, address.append(name, child.getName()),
+                         descriptionAddress.append(name, descriptionValue));
+                }
+            }
+        }
+
+        resources.put(address, attributes);
+
+        if (description.isDefined() && !descriptions.containsKey(descriptionAddress)) {
+            ModelNode shallow = description.clone();
+            if (shallow.has("children")) {
+                for (Property childType : shallow.get("children").asPropertyList()) {
+                    shallow.get("children", childType.getName()).remove("model-description");
+                }
+            }
+            descriptions.put(descriptionAddress, shallow);
+        }
+    }
+
+    // without a description, an object whose values are all objects or undefined is taken to be children
+    private static boolean isChildType(String name, ModelNode value, ModelNode childTypes) {
+        if (childTypes.isDefined()) return childTypes.has(name);
+        if (value.getType() != ModelType.OBJECT) return false;
+
+        for (Property child : value.asPropertyList()) {
+            ModelType type = child.getValue().getType();
+            if ((type != ModelType.OBJECT) && (type != ModelType.UNDEFINED)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation) throws IOException {
+        operationCount.incrementAndGet();
+        pause(operation.get("operation").asString());
+
+        String name = operation.get("operation").asString();
+        if (name.equals("composite") || name.equals("write-attribute")) {
+            lock.writeLock().lock();
+            try {
+                return answer(operation);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            return answer(operation);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void pause(String operation) {
+        Long micros = latencyMicros.get(operation);
+        long delay = (micros != null) ? micros : defaultLatencyMicros;
+        long jitter = jitterMicros;
+        if (jitter > 0) delay += (long) (random.get().nextDouble() * jitter);
+        if (delay > 0) LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(delay));
+    }
+
+    private ModelNode answer(ModelNode operation) {
+        String name = operation.get("operation").asString();
+        if (name.equals("composite")) return composite(operation);
+
+        AddressPath address = operation.hasDefined("address") ? AddressPath.of(operation.get("address")) : AddressPath.ROOT;
+        if (!address.isWildcard()) return answer(name, address, operation);
+
+        // one result per matching resource, the way the server does it
+        ModelNode result = success();
+        result.get("result").setEmptyList();
+        for (AddressPath match : matching(address)) {
+            ModelNode step = answer(name, match, operation);
+            if (isFailed(step)) continue;
+
+            ModelNode element = new ModelNode();
+            element.get("address").set(match.toModelNode());
+            element.get("outcome").set("success");
+            element.get("result").set(step.get("result"));
+            result.get("result").add(element);
+        }
+        return result;
+    }
+
+    private ModelNode answer(String name, AddressPath address, ModelNode operation) {
+        ModelNode attributes = resources.get(address);
+        if (attributes == null) return failure("JBAS014807: Management resource '" + address.toModelNode() + "' not found");
+
+        if (name.equals("read-attribute")) {
+            String attribute = operation.get("name").asString();
+            if (!attributes.has(attribute)) return failure("JBAS014792: Unknown attribute " + attribute);
+            ModelNode result = success();
+            result.get("result").set(attributes.get(attribute));
+            return result;
+        }
+
+        if (name.equals("read-resource")) {
+            boolean recursive = operation.hasDefined("recursive") && operation.get("recursive").asBoolean();
+            ModelNode result = success();
+            result.get("result").set(readResource(address, recursive));
+            return result;
+        }
+
+        if (name.equals("read-resource-description")) {
+            ModelNode description = descriptionOf(address);
+            if (description == null) return failure("No description for " + address);
+            ModelNode result = success();
+            result.get("result").set(description);
+            return result;
+        }
+
+        if (name.equals("read-children-names")) {
+            String childType = operation.get("child-type").asString();
+            ModelNode result = success();
+            result.get("result").setEmptyList();
+            for (AddressPath child : children(address)) {
+                if (child.getKey().equals(childType)) result.get("result").add(child.getValue());
+            }
+            return result;
+        }
+
+        if (name.equals("read-operation-description")) {
+            String operationName = operation.get("name").asString();
+            ModelNode result = success();
+            result.get("result", "operation-name").set(operationName);
+            result.get("result", "read-only").set(operationName.startsWith("read-") || operationName.equals("validate-address"));
+            return result;
+        }
+
+        if (name.equals("validate-address")) {
+            ModelNode result = success();
+            result.get("result", "valid").set(true);
+            return result;
+        }
+
+        if (name.equals("write-attribute")) {
+            String attribute = operation.get("name").asString();
+            ModelNode description = descriptionOf(address);
+            if (description != null) {
+                ModelNode attributeDescription = description.get("attributes", attribute);
+                if (!attributeDescription.isDefined()) return failure("JBAS014792: Unknown attribute " + attribute);
+                if (!attributeDescription.get("access-type").asString().equals("read-write")) {
+                    return failure("JBAS014639: Attribute " + attribute + " is not writable");
+                }
+            }
+            attributes.get(attribute).set(operation.get("value"));
+            return success();
+        }
+
+        return failure("JBAS014884: No operation named '" + name + "' exists at address " + address.toModelNode());
+    }
+
+    // run the steps in order.  If a step fails, undo the writes made by earlier steps unless told not to.
+    private ModelNode composite(ModelNode operation) {
+        boolean rollback = !operation.hasDefined("rollback-on-runtime-failure")
+                || operation.get("rollback-on-runtime-failure").asBoolean();
+
+        ModelNode result = success();
+        List<ModelNode> undo = new ArrayList<ModelNode>();
+        boolean failed = false;
+
+        int stepNumber = 1;
+        for (ModelNode step : operation.get("steps").asList()) {
+            if (step.get("operation").asString().equals("write-attribute")) {
+                ModelNode attributes = resources.get(AddressPath.of(step.get("address")));
+                if (attributes != null) {
+                    ModelNode previous = step.clone();
+                    previous.get("value").set(attributes.get(step.get("name").asString()));
+                    undo.add(0, previous);
+                }
+            }
+
+            ModelNode stepResult = answer(step);
+            result.get("result", "step-" + stepNumber++).set(stepResult);
+            if (isFailed(stepResult)) {
+                failed = true;
+                if (rollback) break;
+            }
+        }
+
+        if (failed && rollback) {
+            for (ModelNode previous : undo) {
+                answer(previous);
+            }
+            // like the controller, every step that ran is reported as failed and rolled back
+            for (String step : result.get("result").keys()) {
+                result.get("result", step, "outcome").set("failed");
+                result.get("result", step, "rolled-back").set(true);
+            }
+            result.get("outcome").set("failed");
+            result.get("failure-description").set("Operation failed and was rolled back");
+            result.get("rolled-back").set(true);
+        }
+        return result;
+    }
+
+    private ModelNode readResource(AddressPath address, boolean recursive) {
+        ModelNode resource = resources.get(address).clone();
+        for (AddressPath child : children(address)) {
+            ModelNode childNode = resource.get(child.getKey(), child.getValue());
+            if (recursive) childNode.set(readResource(child, true));
+        }
+        return resource;
+    }
+
+    private List<AddressPath> children(AddressPath address) {
+        List<AddressPath> children = new ArrayList<AddressPath>();
+        for (AddressPath path : resources.keySet()) {
+            if ((path.getDepth() == address.getDepth() + 1) && path.getParent().equals(address)) children.add(path);
+        }
+        return children;
+    }
+
+    private List<AddressPath> matching(AddressPath pattern) {
+        List<AddressPath> matches = new ArrayList<AddressPath>();
+        for (AddressPath path : resources.keySet()) {
+            if (matches(path, pattern)) matches.add(path);
+        }
+        return matches;
+    }
+
+    private static boolean matches(AddressPath path, AddressPath pattern) {
+        if (path.getDepth() != pattern.getDepth()) return false;
+        while (!path.isRoot()) {
+            if (!path.getKey().equals(pattern.getKey())) return false;
+            if (!pattern.getValue().equals("*") && !path.getValue().equals(pattern.getValue())) return false;
+            path = path.getParent();
+            pattern = pattern.getParent();
+        }
+        return true;
+    }
+
+    // the description registered for the exact name wins over the one registered for *
+    private ModelNode descriptionOf(AddressPath address) {
+        if (address.isRoot()) return descriptions.get(AddressPath.ROOT);
+
+        AddressPath parent = parentDescriptionAddress(address.getParent());
+        if (parent == null) return null;
+
+        AddressPath exact = parent.append(address.getKey(), address.getValue());
+        if (descriptions.containsKey(exact)) return descriptions.get(exact);
+        return descriptions.get(parent.append(address.getKey(), "*"));
+    }
+
+    private AddressPath parentDescriptionAddress(AddressPath address) {
+        if (address.isRoot()) return AddressPath.ROOT;
+
+        AddressPath parent = parentDescriptionAddress(address.getParent());
+        if (parent == null) return null;
+
+        AddressPath exact = parent.append(address.getKey(), address.getValue());
+        if (descriptions.containsKey(exact)) return exact;
+        AddressPath wildcard = parent.append(address.getKey(), "*");
+        if (descriptions.containsKey(wildcard)) return wildcard;
+        return null;
+    }
+
+    private static boolean isFailed(ModelNode result) {
+        return !result.get("outcome").asString().equals("success");
+    }
+
+    private static ModelNode success() {
+        ModelNode result = new ModelNode();
+        result.get("outcome").set("success");
+        return result;
+    }
+
+    private static ModelNode failure(String description) {
+        ModelNode result = new ModelNode();
+        result.get("outcome").set("failed");
+        result.get("failure-description").set(description);
+        return result;
+    }
+
+    @Override
+    public ModelNode execute(Operation operation) throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public ModelNode execute(ModelNode operation, OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation);
+    }
+
+    @Override
+    public ModelNode execute(Operation operation, OperationMessageHandler messageHandler) throws IOException {
+        return execute(operation.getOperation());
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(ModelNode operation, OperationMessageHandler messageHandler) {
+        return new AsyncExecution(operation).start();
+    }
+
+    @Override
+    public AsyncFuture<ModelNode> executeAsync(Operation operation, OperationMessageHandler messageHandler) {
+        return new AsyncExecution(operation.getOperation()).start();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // runs one operation on its own thread.  Cancelling interrupts the thread, which cuts the latency short.
+    private final class AsyncExecution extends AsyncFutureTask<ModelNode> implements Runnable {
+        private final ModelNode operation;
+        private final Thread thread = new Thread(this, "ModelSimulatorAsync");
+
+        AsyncExecution(ModelNode operation) {
+            super(new Executor() {
+                @Override
+                public void execute(Runnable listener) {
+                    listener.run();
+                }
+            });
+            this.operation = operation;
+        }
+
+        AsyncExecution start() {
+            thread.setDaemon(true);
+            thread.start();
+            return this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                setResult(execute(operation));
+            } catch (Throwable e) {
+                setFailed(e);
+            }
+        }
+
+        @Override
+        public void asyncCancel(boolean interruptionDesired) {
+            if (setCancelled() && interruptionDesired) thread.interrupt();
+        }
+    }
+}
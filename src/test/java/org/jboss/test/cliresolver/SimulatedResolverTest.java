@@ -0,0 +1,531 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.test.cliresolver;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.el.ELContext;
+import javax.el.ELException;
+import javax.el.ELResolver;
+import javax.el.FunctionMapper;
+import javax.el.VariableMapper;
+import javax.faces.component.UIViewRoot;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+import javax.faces.lifecycle.Lifecycle;
+import org.jboss.cliresolver.Aggregate;
+import org.jboss.cliresolver.ChildrenDataModel;
+import org.jboss.cliresolver.CliResolver;
+import org.jboss.cliresolver.CompositeReadPhaseListener;
+import org.jboss.cliresolver.DmrOperationFailedException;
+import org.jboss.cliresolver.ManagementService;
+import org.jboss.cliresolver.ManagementUnavailableException;
+import org.jboss.cliresolver.NativeExecutor;
+import org.jboss.cliresolver.ValueCache;
+import org.jboss.dmr.ModelNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the resolver against a {@link ModelSimulator} instead of a server.  This is plain JUnit, so it is also a
+ * starting point for measuring the resolver under load.
+ */
+public class SimulatedResolverTest {
+
+    private ModelSimulator simulator;
+    private CliResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        simulator = ModelSimulator.fromResource("simulator-snapshot.dmr");
+        ManagementService.setClientProvider(simulator);
+        resolver = new CliResolver();
+    }
+
+    @After
+    public void tearDown() {
+        ManagementService.setClientProvider(null);
+    }
+
+    @Test
+    public void testIsDomain() {
+        Assert.assertEquals(Boolean.FALSE, resolve("_isDomain_"));
+    }
+
+    @Test
+    public void testReadAttribute() {
+        Assert.assertEquals("INFO", resolve("subsystem_eq_logging", "console-handler_eq_CONSOLE", "level"));
+        Assert.assertEquals(4, resolve("subsystem_eq_web", "configuration_eq_jsp_dash_configuration", "modification_dash_test_dash_interval"));
+        Assert.assertEquals(1024L, resolve("subsystem_eq_web", "connector_eq_http", "bytesSent"));
+    }
+
+    @Test
+    public void testSetValue() {
+        ELContext ctx = new SimulatorELContext();
+        Object logger = address(ctx, "subsystem_eq_logging", "logger_eq_com_dot_arjuna");
+        Assert.assertEquals("WARN", resolver.getValue(ctx, logger, "level"));
+
+        resolver.setValue(ctx, logger, "level", "INFO");
+        Assert.assertEquals("INFO", resolver.getValue(ctx, logger, "level"));
+    }
+
+    @Test
+    public void testComplexValueType() {
+        List<?> drivers = (List<?>) resolve("subsystem_eq_datasources", "installed_dash_drivers");
+        Assert.assertEquals(2, drivers.size());
+
+        Map<?, ?> postgresql = (Map<?, ?>) drivers.get(1);
+        Assert.assertEquals("postgresql", postgresql.get("driver-name"));
+        Assert.assertEquals(9, postgresql.get("driver-major-version"));
+        Assert.assertEquals(Boolean.FALSE, postgresql.get("jdbc-compliant"));
+        Assert.assertNull(((Map<?, ?>) drivers.get(0)).get("deployment-name"));
+    }
+
+    @Test
+    public void testSetTypedValues() {
+        ELContext ctx = new SimulatorELContext();
+        Object connector = address(ctx, "subsystem_eq_web", "connector_eq_http");
+        Assert.assertEquals(Integer.class, resolver.getType(ctx, connector, "max_dash_connections"));
+        resolver.setValue(ctx, connector, "max_dash_connections", 1000);
+        Assert.assertEquals(1000, resolver.getValue(ctx, connector, "max_dash_connections"));
+
+        Object datasources = address(ctx, "subsystem_eq_datasources");
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("ssl", "false");
+        resolver.setValue(ctx, datasources, "connection_dash_properties", properties);
+        Assert.assertEquals(properties, resolver.getValue(ctx, datasources, "connection_dash_properties"));
+    }
+
+    @Test
+    public void testExpressionValuedIntAttribute() {
+        ELContext ctx = new SimulatorELContext();
+        Object connector = address(ctx, "subsystem_eq_web", "connector_eq_http");
+        ModelNode expression = new ModelNode();
+        expression.setExpression("${jboss.http.connections:512}");
+        resolver.setValue(ctx, connector, "max_dash_connections", expression);
+        Assert.assertEquals("${jboss.http.connections:512}", resolver.getValue(ctx, connector, "max_dash_connections"));
+    }
+
+    @Test(expected = DmrOperationFailedException.class)
+    public void testSetReadOnlyValue() {
+        ELContext ctx = new SimulatorELContext();
+        Object connector = address(ctx, "subsystem_eq_web", "connector_eq_http");
+        resolver.setValue(ctx, connector, "maxTime", 999);
+    }
+
+    @Test
+    public void testDeadlineFallsBackToStaleValue() {
+        System.setProperty("org.jboss.cliresolver.deadline.overrides", "read-attribute:200");
+        try {
+            ManagementService.setClientProvider(simulator); // set the client up again with the deadline
+            ValueCache.getInstance().setTtlOverride("/subsystem=web/connector=ajp", 50);
+
+            ELContext ctx = new SimulatorELContext();
+            Object connector = address(ctx, "subsystem_eq_web", "connector_eq_ajp");
+            Object maxConnections = resolver.getValue(ctx, connector, "max_dash_connections");
+
+            simulator.latency("read-attribute", 5000000);
+            Thread.sleep(150); // past the time to live and the stale period
+            long start = System.nanoTime();
+            Assert.assertEquals(maxConnections, resolver.getValue(ctx, connector, "max_dash_connections"));
+
+            try {
+                resolver.getValue(ctx, connector, "bytesSent"); // never read, so there is nothing to fall back to
+                Assert.fail("Expected a timeout");
+            } catch (ELException e) {
+                Assert.assertTrue(e.getCause() instanceof ManagementUnavailableException);
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            System.clearProperty("org.jboss.cliresolver.deadline.overrides");
+        }
+    }
+
+    @Test
+    public void testStaleFallbackInFacesRequest() throws Exception {
+        System.setProperty("org.jboss.cliresolver.deadline.overrides", "read-attribute:200;read-resource:200");
+        SimulatorFacesContext fctx = null;
+        try {
+            ManagementService.setClientProvider(simulator);
+            ValueCache.getInstance().setTtlOverride("/subsystem=web/connector=ajp", 50);
+
+            ELContext ctx = new SimulatorELContext();
+            fctx = new SimulatorFacesContext();
+            Object connector = address(ctx, "subsystem_eq_web", "connector_eq_ajp");
+            Object maxConnections = resolver.getValue(ctx, connector, "max_dash_connections");
+            Assert.assertEquals(Boolean.FALSE, resolver.getValue(ctx, connector, "_stale_"));
+            fctx.release();
+
+            simulator.latency("read-resource", 5000000).latency("read-attribute", 5000000);
+            Thread.sleep(150); // past the time to live and the stale period
+            fctx = new SimulatorFacesContext(); // the next request reads the resource first
+            long start = System.nanoTime();
+            Assert.assertEquals(maxConnections, resolver.getValue(ctx, connector, "max_dash_connections"));
+            Assert.assertEquals(Boolean.TRUE, resolver.getValue(ctx, connector, "_stale_"));
+            Assert.assertEquals(Boolean.TRUE, resolver.getValue(ctx, null, "_stale_"));
+
+            try {
+                resolver.getValue(ctx, connector, "bytesSent");
+                Assert.fail("Expected the address to be unreachable");
+            } catch (ELException e) {
+                Assert.assertTrue(e.getCause() instanceof ManagementUnavailableException);
+            }
+            // the rest of the request doesn't wait for the address again
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        } finally {
+            if (fctx != null) fctx.release();
+            System.clearProperty("org.jboss.cliresolver.deadline.overrides");
+        }
+    }
+
+    @Test
+    public void testShedReadInFacesRequestFallsBackToStaleValue() throws Exception {
+        System.setProperty("org.jboss.cliresolver.governor", "true");
+        System.setProperty("org.jboss.cliresolver.governor.maxInFlight", "1");
+        System.setProperty("org.jboss.cliresolver.governor.maxQueued", "0");
+        SimulatorFacesContext fctx = null;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ManagementService.setClientProvider(simulator);
+            ValueCache.getInstance().setTtlOverride("/subsystem=web/connector=ajp", 50);
+
+            ELContext ctx = new SimulatorELContext();
+            Object connector = address(ctx, "subsystem_eq_web", "connector_eq_ajp");
+            Object maxConnections = resolver.getValue(ctx, connector, "max_dash_connections");
+
+            // hold the only slot
+            simulator.latency("read-resource", 500000);
+            Future<ModelNode> busy = executor.submit(new Callable<ModelNode>() {
+                @Override
+                public ModelNode call() throws Exception {
+                    ModelNode operation = new ModelNode();
+                    operation.get("address").setEmptyList();
+                    operation.get("operation").set("read-resource");
+                    return CliResolver.dmrClient().execute(operation);
+                }
+            });
+            Thread.sleep(150);
+
+            fctx = new SimulatorFacesContext();
+            Assert.assertEquals(maxConnections, resolver.getValue(ctx, connector, "max_dash_connections"));
+            Assert.assertEquals(Boolean.TRUE, resolver.getValue(ctx, connector, "_stale_"));
+            Assert.assertFalse(busy.isDone());
+            busy.get();
+        } finally {
+            if (fctx != null) fctx.release();
+            executor.shutdown();
+            System.clearProperty("org.jboss.cliresolver.governor");
+            System.clearProperty("org.jboss.cliresolver.governor.maxInFlight");
+            System.clearProperty("org.jboss.cliresolver.governor.maxQueued");
+        }
+    }
+
+    @Test
+    public void testReadOnlyCommandExecutedOncePerRequest() {
+        SimulatorFacesContext fctx = new SimulatorFacesContext();
+        try {
+            String command = "/subsystem=logging/logger=jacorb/:read-attribute(name=level)";
+            Object first = new NativeExecutor(command).getExecute();
+            long before = simulator.getOperationCount();
+            Assert.assertEquals(first, new NativeExecutor(command).getExecute());
+            Assert.assertEquals(before, simulator.getOperationCount());
+
+            // a write forgets the result
+            ELContext ctx = new SimulatorELContext();
+            resolver.setValue(ctx, address(ctx, "subsystem_eq_logging", "logger_eq_jacorb"), "level", "ERROR");
+            Assert.assertEquals("ERROR", ((ModelNode) new NativeExecutor(command).getExecute()).asString());
+        } finally {
+            fctx.release();
+        }
+    }
+
+    @Test
+    public void testReadOnlyCommandNotNamedReadKeepsCaches() {
+        SimulatorFacesContext fctx = new SimulatorFacesContext();
+        try {
+            Assert.assertEquals("WARN", resolve("subsystem_eq_logging", "logger_eq_jacorb", "level"));
+
+            String command = "/subsystem=logging/:validate-address";
+            new NativeExecutor(command).getExecute();
+            long before = simulator.getOperationCount();
+            new NativeExecutor(command).getExecute();
+            Assert.assertEquals("WARN", resolve("subsystem_eq_logging", "logger_eq_jacorb", "level"));
+            Assert.assertEquals(before, simulator.getOperationCount());
+        } finally {
+            fctx.release();
+        }
+    }
+
+    @Test
+    public void testWildcardCommand() throws Exception {
+        ModelNode result = NativeExecutor.executeCLI("/subsystem=logging/logger=*/:read-attribute(name=level)");
+        List<ModelNode> loggers = result.get("result").asList();
+        Assert.assertEquals(5, loggers.size());
+        for (ModelNode logger : loggers) {
+            Assert.assertEquals("logger", logger.get("address").asPropertyList().get(1).getName());
+        }
+    }
+
+    @Test
+    public void testWildcardResultByAddress() {
+        ELContext ctx = new SimulatorELContext();
+        Object loggers = new NativeExecutor("/subsystem=logging/logger=*/:read-attribute(name=level)").getExecute();
+
+        ModelNode jacorb = (ModelNode) resolver.getValue(ctx, loggers, "logger_eq_jacorb");
+        Assert.assertEquals("WARN", jacorb.get("result").asString());
+        Assert.assertSame(jacorb, resolver.getValue(ctx, loggers, "/subsystem=logging/logger=jacorb"));
+        Assert.assertNull(resolver.getValue(ctx, loggers, "logger_eq_nosuchlogger"));
+    }
+
+    @Test
+    public void testPropertyListResolvesToModelNode() {
+        SimulatorFacesContext fctx = new SimulatorFacesContext();
+        try {
+            ELContext ctx = new SimulatorELContext();
+            Object loggers = new NativeExecutor("/subsystem=logging/logger=*/:read-attribute(name=level)").getExecute();
+            Object jacorb = resolver.getValue(ctx, loggers, "logger_eq_jacorb");
+
+            // pages and resolvers chained after this one see the property list as the ModelNode it always was
+            Object address = resolver.getValue(ctx, jacorb, "address");
+            Assert.assertTrue(address instanceof ModelNode);
+            Assert.assertSame(address, resolver.getValue(ctx, jacorb, "address"));
+            Assert.assertEquals("logging", resolver.getValue(ctx, address, "subsystem"));
+            Assert.assertEquals("jacorb", resolver.getValue(ctx, address, "logger"));
+            Assert.assertEquals(2, ((List<?>) resolver.getValue(ctx, address, "_asPropertyList_")).size());
+        } finally {
+            fctx.release();
+        }
+    }
+
+    @Test
+    public void testCompositeReadSkipsCachedResources() throws Exception {
+        System.setProperty(CompositeReadPhaseListener.ENABLED, "true");
+        try {
+            CompositeReadPhaseListener listener = new CompositeReadPhaseListener();
+            ValueCache.getInstance().setTtlOverride("/subsystem=logging/logger=org.apache.tomcat.util.modeler", 50);
+            ValueCache.getInstance().invalidateAll();
+
+            render(listener); // records what the view reads
+
+            // everything is still cached, so there is nothing to read up front
+            long before = simulator.getOperationCount();
+            render(listener);
+            Assert.assertEquals(before, simulator.getOperationCount());
+
+            // once the values have expired, the resource is read once for the whole view
+            Thread.sleep(150);
+            before = simulator.getOperationCount();
+            render(listener);
+            Assert.assertEquals(1, simulator.getOperationCount() - before);
+        } finally {
+            System.clearProperty(CompositeReadPhaseListener.ENABLED);
+        }
+    }
+
+    private void render(CompositeReadPhaseListener listener) {
+        SimulatorFacesContext fctx = new SimulatorFacesContext();
+        try {
+            UIViewRoot view = new UIViewRoot();
+            view.setViewId("/loggers.xhtml");
+            fctx.setViewRoot(view);
+            PhaseEvent event = new PhaseEvent(fctx, PhaseId.RENDER_RESPONSE, new SimulatorLifecycle());
+
+            listener.beforePhase(event);
+            Assert.assertEquals("WARN", resolve("subsystem_eq_logging", "logger_eq_org_dot_apache_dot_tomcat_dot_util_dot_modeler", "level"));
+            Assert.assertEquals(Boolean.TRUE, resolve("subsystem_eq_logging", "logger_eq_org_dot_apache_dot_tomcat_dot_util_dot_modeler", "use_dash_parent_dash_handlers"));
+            listener.afterPhase(event);
+        } finally {
+            fctx.release();
+        }
+    }
+
+    @Test
+    public void testChildrenDataModel() {
+        ChildrenDataModel loggers = (ChildrenDataModel) resolve("subsystem_eq_logging", "logger_eq__astk_", "_dataModel_");
+        Assert.assertEquals(5, loggers.getRowCount());
+
+        // one read for the rows from the first row asked for
+        long before = simulator.getOperationCount();
+        loggers.setRowIndex(3);
+        Assert.assertEquals("success", loggers.getRowData().get("outcome").asString());
+        loggers.setRowIndex(4);
+        Assert.assertTrue(loggers.getRowData().get("result").has("level"));
+        Assert.assertEquals(1, simulator.getOperationCount() - before);
+
+        loggers.setRowIndex(5);
+        Assert.assertFalse(loggers.isRowAvailable());
+    }
+
+    @Test
+    public void testSortedChildrenDataModel() {
+        ChildrenDataModel loggers = (ChildrenDataModel) resolve("subsystem_eq_logging", "logger_eq__astk_", "_dataModel_");
+
+        ChildrenDataModel sorted = loggers.sortedBy("level");
+        sorted.setRowIndex(0);
+        Assert.assertEquals("jacorb.config", sorted.getRowName());
+        Assert.assertEquals("ERROR", sorted.getRowData().get("result", "level").asString());
+
+        ChildrenDataModel reversed = loggers.reverseSortedBy("level");
+        reversed.setRowIndex(reversed.getRowCount() - 1);
+        Assert.assertEquals("jacorb.config", reversed.getRowName());
+    }
+
+    @Test
+    public void testAggregate() {
+        Aggregate connections = (Aggregate) resolve("_aggregate_", "/subsystem=web/connector=*:max-connections");
+        Assert.assertEquals(2, connections.getCount());
+        Assert.assertEquals(768, connections.getSum().intValue());
+        Assert.assertEquals(384, connections.getAverage().intValue());
+        Assert.assertEquals(256, connections.getMin().intValue());
+        Assert.assertEquals(512, connections.getMax().intValue());
+
+        Aggregate protocols = (Aggregate) resolve("_aggregate_", "/subsystem=web/connector=*:protocol");
+        Assert.assertEquals(0, protocols.getCount());
+        Assert.assertEquals(2, protocols.getFailedCount());
+        Assert.assertNull(protocols.getAverage());
+        Assert.assertTrue(protocols.getSamples().get(0).getFailure().startsWith("Not a number"));
+    }
+
+    @Test
+    public void testCompositeRollsBack() throws Exception {
+        ModelNode composite = new ModelNode();
+        composite.get("operation").set("composite");
+        composite.get("address").setEmptyList();
+        composite.get("steps").add(writeAttribute("/subsystem=web/connector=http", "max-connections", new ModelNode(100)));
+        composite.get("steps").add(writeAttribute("/subsystem=web/connector=http", "maxTime", new ModelNode(1)));
+
+        ModelNode result = simulator.execute(composite);
+        Assert.assertEquals("failed", result.get("outcome").asString());
+        Assert.assertEquals("failed", result.get("result", "step-1", "outcome").asString());
+        Assert.assertTrue(result.get("result", "step-1", "rolled-back").asBoolean());
+        List<ModelNode> failedSteps = new DmrOperationFailedException(composite, result).getFailedSteps();
+        Assert.assertEquals(1, failedSteps.size());
+        Assert.assertEquals("maxTime", failedSteps.get(0).get("operation", "name").asString());
+        Assert.assertEquals(512, NativeExecutor.executeCLI("/subsystem=web/connector=http/:read-attribute(name=max-connections)").get("result").asInt());
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        simulator.latency("read-attribute", 200).latency("read-resource-description", 500).jitter(100);
+
+        final int threads = 8;
+        final int evaluationsPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] results = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                results[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int j = 0; j < evaluationsPerThread; j++) {
+                            Assert.assertEquals(Boolean.TRUE, resolve("subsystem_eq_web", "connector_eq_http", "enabled"));
+                            Assert.assertEquals("WARN", resolve("subsystem_eq_logging", "logger_eq_jacorb", "level"));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the value cache should have kept almost all of the evaluations away from the model
+        Assert.assertTrue(simulator.getOperationCount() < threads * evaluationsPerThread);
+    }
+
+    // evaluate a chain of properties the way the EL implementation does
+    private Object resolve(String... properties) {
+        return address(new SimulatorELContext(), properties);
+    }
+
+    private Object address(ELContext ctx, String... properties) {
+        Object base = null;
+        for (String property : properties) {
+            base = resolver.getValue(ctx, base, property);
+        }
+        return base;
+    }
+
+    private static ModelNode writeAttribute(String address, String name, ModelNode value) {
+        ModelNode operation = new ModelNode();
+        operation.get("operation").set("write-attribute");
+        for (String element : address.substring(1).split("/")) {
+            String[] keyValue = element.split("=");
+            operation.get("address").add(keyValue[0], keyValue[1]);
+        }
+        operation.get("name").set(name);
+        operation.get("value").set(value);
+        return operation;
+    }
+
+    private class SimulatorELContext extends ELContext {
+        @Override
+        public ELResolver getELResolver() {
+            return resolver;
+        }
+
+        @Override
+        public FunctionMapper getFunctionMapper() {
+            return null;
+        }
+
+        @Override
+        public VariableMapper getVariableMapper() {
+            return null;
+        }
+    }
+
+    private static class SimulatorLifecycle extends Lifecycle {
+        @Override
+        public void addPhaseListener(PhaseListener listener) {
+        }
+
+        @Override
+        public void execute(FacesContext context) {
+        }
+
+        @Override
+        public PhaseListener[] getPhaseListeners() {
+            return new PhaseListener[0];
+        }
+
+        @Override
+        public void removePhaseListener(PhaseListener listener) {
+        }
+
+        @Override
+        public void render(FacesContext context) {
+        }
+    }
+}
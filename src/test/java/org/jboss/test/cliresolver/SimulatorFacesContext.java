@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.test.cliresolver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import javax.faces.application.Application;
+import javax.faces.application.ApplicationWrapper;
+import javax.faces.application.FacesMessage;
+import javax.faces.application.ViewHandler;
+import javax.faces.application.ViewHandlerWrapper;
+import javax.faces.component.UIViewRoot;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.context.ResponseStream;
+import javax.faces.context.ResponseWriter;
+import javax.faces.render.RenderKit;
+
+/**
+ * Just enough of a FacesContext to make the resolver believe it is inside a Faces request, so the request scoped
+ * caches are used.  Creating one makes it the current instance.  Call {@link #release()} at the end of the request.
+ */
+public class SimulatorFacesContext extends FacesContext {
+
+    private final Map<Object, Object> attributes = new HashMap<Object, Object>();
+    private final Application application = new SimulatorApplication();
+    private UIViewRoot viewRoot;
+    private boolean renderResponse;
+    private boolean responseComplete;
+
+    public SimulatorFacesContext() {
+        setCurrentInstance(this);
+    }
+
+    @Override
+    public Map<Object, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public Application getApplication() {
+        return application;
+    }
+
+    @Override
+    public Iterator<String> getClientIdsWithMessages() {
+        return Collections.<String>emptyList().iterator();
+    }
+
+    @Override
+    public ExternalContext getExternalContext() {
+        return null;
+    }
+
+    @Override
+    public FacesMessage.Severity getMaximumSeverity() {
+        return null;
+    }
+
+    @Override
+    public Iterator<FacesMessage> getMessages() {
+        return Collections.<FacesMessage>emptyList().iterator();
+    }
+
+    @Override
+    public Iterator<FacesMessage> getMessages(String clientId) {
+        return Collections.<FacesMessage>emptyList().iterator();
+    }
+
+    @Override
+    public RenderKit getRenderKit() {
+        return null;
+    }
+
+    @Override
+    public boolean getRenderResponse() {
+        return renderResponse;
+    }
+
+    @Override
+    public boolean getResponseComplete() {
+        return responseComplete;
+    }
+
+    @Override
+    public ResponseStream getResponseStream() {
+        return null;
+    }
+
+    @Override
+    public void setResponseStream(ResponseStream responseStream) {
+    }
+
+    @Override
+    public ResponseWriter getResponseWriter() {
+        return null;
+    }
+
+    @Override
+    public void setResponseWriter(ResponseWriter responseWriter) {
+    }
+
+    @Override
+    public UIViewRoot getViewRoot() {
+        return viewRoot;
+    }
+
+    @Override
+    public void setViewRoot(UIViewRoot root) {
+        viewRoot = root;
+    }
+
+    @Override
+    public void addMessage(String clientId, FacesMessage message) {
+    }
+
+    @Override
+    public void release() {
+        setCurrentInstance(null);
+    }
+
+    @Override
+    public void renderResponse() {
+        renderResponse = true;
+    }
+
+    @Override
+    public void responseComplete() {
+        responseComplete = true;
+    }
+
+    // only the view handler is used, to calculate the locale
+    private static class SimulatorApplication extends ApplicationWrapper {
+        private final ViewHandler viewHandler = new ViewHandlerWrapper() {
+            @Override
+            public Locale calculateLocale(FacesContext context) {
+                return Locale.ENGLISH;
+            }
+
+            @Override
+            public ViewHandler getWrapped() {
+                throw new UnsupportedOperationException("Not simulated");
+            }
+        };
+
+        @Override
+        public ViewHandler getViewHandler() {
+            return viewHandler;
+        }
+
+        @Override
+        public Application getWrapped() {
+            throw new UnsupportedOperationException("Not simulated");
+        }
+    }
+}